@@ -31,16 +31,23 @@ import java.util.Dictionary;
 import net.sf.eclipsecs.ui.CheckstyleUIPlugin;
 
 import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Platform;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.preferences.ConfigurationScope;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
 import org.eclipse.jface.dialogs.MessageDialog;
-import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.IWorkbenchWindow;
 import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
+import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.service.prefs.BackingStoreException;
 
 import de.unkrig.commons.nullanalysis.NotNullByDefault;
+import de.unkrig.cscontrib.ui.PluginImages;
 
 /**
  * 'Bundle-Activator' of this plugin.
@@ -53,43 +60,99 @@ class Activator extends AbstractUIPlugin {
      */
     public static final String PLUGIN_ID = "de.unkrig.cs-contrib.core";
 
+    /**
+     * The preference (in the configuration scope, i.e. per installation) that holds the version of the
+     * 'net.sf.eclipsecs.ui' plugin that was last found to be compatible.
+     */
+    private static final String PREF_COMPATIBLE_ECLIPSECS_UI_VERSION = "compatibleEclipsecsUiVersion";
+
     @Override public void
     start(BundleContext context) throws Exception {
         super.start(context);
 
-        // ECLIPSECS quickfixes are broken, because the 'net.sf.eclipsecs.ui' plugin lacks two specific entries in its
-        // manifest. Effectively, 'net.sf.eclipsecs.ui' is unable to load OTHER plugins' quickfixes
-        // (ClassNotFoundException), and produces ugly messages in the error log ('Checkstyle-Plugin:
-        // de.unkrig.cscontrib.ui.quickfixes.InnerAssignment'), because 'net.sf.eclipsecs.ui' fails to allow other
-        // plugin to register themselves as buddies, and also fails to export some Java packages to these buddies.
-        //
-        // This problem was diagnosed in ECLIPSECS 5.1.0, and is fixed in ECLIPSECS 5.3.0.
-        //
-        // Check these conditions here and issue a warning message that motivates users to patch their
-        // 'net.sf.eclipsecs.ui' plugin's manifest appropriately.
-        Dictionary<?, ?> headers = Platform.getBundle(CheckstyleUIPlugin.PLUGIN_ID).getHeaders();
-        if (headers.get("Export-Package") == null || !"registered".equals(headers.get("Eclipse-BuddyPolicy"))) {
-            Display.getDefault().asyncExec(new Runnable() {
-
-                @Override public void
-                run() {
-                    MessageDialog.openWarning(
-                        PlatformUI.getWorkbench().getActiveWorkbenchWindow().getShell(),
-                        Activator.PLUGIN_ID,
-                        (
-                            "The 'net.sf.eclipsecs.ui' plugin has a bug that thwarts the quickfixes of "
-                            + "'de.unkrig.cscontrib' from functioning. The manifest of the 'net.sf.eclipsecs.ui' "
-                            + "plugin must be patched to contain the following lines:\n"
-                            + "\n"
-                            + "  Export-Package: net.sf.eclipsecs.ui,\n"
-                            + "    net.sf.eclipsecs.ui.properties.filter,\n"
-                            + "    net.sf.eclipsecs.ui.quickfixes\n"
-                            + "  Eclipse-BuddyPolicy: registered"
-                        )
-                    );
-                }
-            });
+        // In headless mode (e.g. in a build) there is nobody to warn, so skip the compatibility check altogether.
+        if (!PlatformUI.isWorkbenchRunning()) return;
+
+        // Check the compatibility in the background, so that the activation of this plugin is not delayed.
+        Job job = new Job("Checking compatibility with '" + CheckstyleUIPlugin.PLUGIN_ID + "'") {
+
+            @Override protected IStatus
+            run(IProgressMonitor monitor) {
+                Activator.checkEclipsecsUi();
+                return Status.OK_STATUS;
+            }
+        };
+        job.setSystem(true);
+        job.schedule();
+    }
+
+    /**
+     * ECLIPSECS quickfixes are broken, because the 'net.sf.eclipsecs.ui' plugin lacks two specific entries in its
+     * manifest. Effectively, 'net.sf.eclipsecs.ui' is unable to load OTHER plugins' quickfixes
+     * (ClassNotFoundException), and produces ugly messages in the error log ('Checkstyle-Plugin:
+     * de.unkrig.cscontrib.ui.quickfixes.InnerAssignment'), because 'net.sf.eclipsecs.ui' fails to allow other
+     * plugin to register themselves as buddies, and also fails to export some Java packages to these buddies.
+     * <p>
+     * This problem was diagnosed in ECLIPSECS 5.1.0, and is fixed in ECLIPSECS 5.3.0.
+     * <p>
+     * Check these conditions here and issue a warning message that motivates users to patch their
+     * 'net.sf.eclipsecs.ui' plugin's manifest appropriately. Once a version of 'net.sf.eclipsecs.ui' was found to be
+     * compatible, that version is not checked again.
+     */
+    private static void
+    checkEclipsecsUi() {
+
+        Bundle bundle = Platform.getBundle(CheckstyleUIPlugin.PLUGIN_ID);
+        if (bundle == null) return;
+
+        String              version     = bundle.getVersion().toString();
+        IEclipsePreferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.PLUGIN_ID);
+        if (version.equals(preferences.get(Activator.PREF_COMPATIBLE_ECLIPSECS_UI_VERSION, null))) return;
+
+        Dictionary<?, ?> headers = bundle.getHeaders();
+        if (headers.get("Export-Package") != null && "registered".equals(headers.get("Eclipse-BuddyPolicy"))) {
+            preferences.put(Activator.PREF_COMPATIBLE_ECLIPSECS_UI_VERSION, version);
+            try {
+                preferences.flush();
+            } catch (BackingStoreException bse) {
+                ; // Then we'll check again next time.
+            }
+            return;
         }
+
+        // The bundle may have stopped meanwhile.
+        if (!PlatformUI.isWorkbenchRunning()) return;
+
+        PlatformUI.getWorkbench().getDisplay().asyncExec(new Runnable() {
+
+            @Override public void
+            run() {
+                IWorkbenchWindow window = PlatformUI.getWorkbench().getActiveWorkbenchWindow();
+                MessageDialog.openWarning(
+                    window == null ? null : window.getShell(),
+                    Activator.PLUGIN_ID,
+                    (
+                        "The 'net.sf.eclipsecs.ui' plugin has a bug that thwarts the quickfixes of "
+                        + "'de.unkrig.cscontrib' from functioning. The manifest of the 'net.sf.eclipsecs.ui' "
+                        + "plugin must be patched to contain the following lines:\n"
+                        + "\n"
+                        + "  Export-Package: net.sf.eclipsecs.ui,\n"
+                        + "    net.sf.eclipsecs.ui.properties.filter,\n"
+                        + "    net.sf.eclipsecs.ui.quickfixes\n"
+                        + "  Eclipse-BuddyPolicy: registered"
+                    )
+                );
+            }
+        });
+    }
+
+    @Override public void
+    stop(BundleContext context) throws Exception {
+
+        // Release the SWT handles of the images that were created while the bundle was active.
+        PluginImages.clearCachedImages();
+
+        super.stop(context);
     }
 
     /** @return A {@link CoreException} repreenting the {@code message} */
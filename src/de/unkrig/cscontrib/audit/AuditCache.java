@@ -0,0 +1,578 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.audit;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.Configuration;
+import com.puppycrawl.tools.checkstyle.api.LocalizedMessage;
+import com.puppycrawl.tools.checkstyle.api.SeverityLevel;
+
+import de.unkrig.commons.nullanalysis.Nullable;
+import de.unkrig.cscontrib.checks.AbstractWrapCheck;
+
+/**
+ * A persistent cache of audit results, so that files whose contents did not change need not be audited again.
+ * <p>
+ * The results are keyed by the SHA-1 hash of the file contents and the file's absolute path (because some modules,
+ * e.g. "SuppressionFilter", "OuterTypeFilename" and "RegexpOnFilename", depend on the path), plus the SHA-1 hash of
+ * the "context", i.e. the effective CheckStyle configuration (including the contents of files that the
+ * configuration refers to, e.g. suppression files), the CheckStyle version and the cs-contrib version. Thus a
+ * changed configuration or an upgrade invalidates all cached results, without further ado.
+ * <p>
+ * The cache file is a sequence of records, each holding the two hashes and the audit events of one file. New
+ * results are appended to the file; when the cache is {@link #close() closed} and the file has grown beyond the
+ * configured maximum size, it is rewritten with only the most recently used entries. A truncated last record (e.g.
+ * after a crash) is removed when the cache file is opened.
+ * <p>
+ * The methods of this class may be invoked concurrently; however the same cache file must not be used by multiple
+ * processes at the same time.
+ */
+public final
+class AuditCache {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final int HASH_LENGTH    = 20;
+
+    private final File   file;
+    private final long   maxSize;
+    private final byte[] contextHash;
+
+    /**
+     * The cache entries, keyed by content hash plus context hash, in the order of their last use.
+     */
+    private final Map<ByteBuffer, byte[]> entries = new LinkedHashMap<ByteBuffer, byte[]>(16, .75F, true);
+
+    /**
+     * The source classes of the cached events, by name.
+     */
+    private final ConcurrentMap<String, Class<?>> sourceClasses = new ConcurrentHashMap<String, Class<?>>();
+
+    @Nullable private DataOutputStream out;
+    private long                       size;
+
+    private final AtomicInteger hitCount  = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+
+    /**
+     * Opens the cache file, or creates it if it does not exist.
+     *
+     * @param maxSize The size that the cache file is reduced to when it is {@link #close() closed}
+     */
+    public
+    AuditCache(File file, Configuration configuration, long maxSize) throws IOException {
+
+        this.file        = file;
+        this.maxSize     = maxSize;
+        this.contextHash = AuditCache.contextHash(configuration);
+
+        if (file.exists()) this.load();
+
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if (this.size == 0) {
+            this.out.writeInt(AuditCache.FORMAT_VERSION);
+            this.size = 4;
+        }
+    }
+
+    /**
+     * @return The SHA-1 hash of the {@code file}'s contents
+     */
+    public static byte[]
+    contentHash(File file) throws IOException {
+
+        MessageDigest md = AuditCache.sha1();
+
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            for (int n = is.read(buffer); n != -1; n = is.read(buffer)) md.update(buffer, 0, n);
+        } finally {
+            is.close();
+        }
+
+        return md.digest();
+    }
+
+    /**
+     * @param contentHash The {@link #contentHash(File)} of the {@code file}
+     * @return            The cached audit events of the {@code file}, or {@code null} iff the {@code file} is not
+     *                    in the cache
+     */
+    @Nullable public List<AuditEvent>
+    get(byte[] contentHash, File file) {
+
+        byte[] record;
+        synchronized (this.entries) {
+            record = this.entries.get(this.key(contentHash, file));
+        }
+        if (record == null) {
+            this.missCount.incrementAndGet();
+            return null;
+        }
+
+        try {
+            List<AuditEvent> result = this.decodeEvents(record, file.getAbsolutePath());
+            this.hitCount.incrementAndGet();
+            return result;
+        } catch (IOException ioe) {
+            ;
+        } catch (ClassNotFoundException cnfe) {
+            ;
+        }
+
+        // The record is unusable (e.g. a check class was renamed); treat it like a cache miss.
+        this.missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the audit events of the {@code file}, and appends them to the cache file. Iff appending fails, then
+     * the cache file is closed, and all subsequent invocations fail.
+     *
+     * @param contentHash The {@link #contentHash(File)} of the {@code file}
+     */
+    public void
+    put(byte[] contentHash, File file, List<AuditEvent> events) throws IOException {
+
+        ByteBuffer key    = this.key(contentHash, file);
+        byte[]     record = AuditCache.encodeEvents(events);
+
+        synchronized (this.entries) {
+
+            DataOutputStream out = this.out;
+            if (out == null) throw new IOException("Cache is closed");
+            try {
+                this.size += AuditCache.writeRecord(key, record, out);
+            } catch (IOException ioe) {
+
+                // The cache file possibly ends with a partial record now; the next "load()" will remove it.
+                this.out = null;
+                try {
+                    out.close();
+                } catch (IOException ioe2) {
+                    ;
+                }
+                throw ioe;
+            }
+
+            this.entries.put(key, record);
+        }
+    }
+
+    /**
+     * @return The number of {@link #get(byte[], File)} invocations that found a usable entry
+     */
+    public int
+    getHitCount() {
+        return this.hitCount.get();
+    }
+
+    /**
+     * @return The number of {@link #get(byte[], File)} invocations that found no usable entry
+     */
+    public int
+    getMissCount() {
+        return this.missCount.get();
+    }
+
+    /**
+     * Closes the cache file. Iff it has grown beyond the maximum size, it is rewritten with only the most recently
+     * used entries, up to half the maximum size (so that it need not be rewritten again soon).
+     */
+    public void
+    close() throws IOException {
+
+        synchronized (this.entries) {
+
+            DataOutputStream out = this.out;
+            if (out == null) return;
+            this.out = null;
+            out.close();
+
+            if (this.size <= this.maxSize) return;
+
+            // Determine the most recently used entries that fit.
+            List<Entry<ByteBuffer, byte[]>> entries = new ArrayList<Entry<ByteBuffer, byte[]>>(this.entries.entrySet());
+            Collections.reverse(entries);
+
+            long size = 4, limit = this.maxSize / 2;
+            int  n    = 0;
+            for (; n < entries.size(); n++) {
+                long recordSize = 4 + 2 * AuditCache.HASH_LENGTH + entries.get(n).getValue().length;
+                if (size + recordSize > limit) break;
+                size += recordSize;
+            }
+            entries = entries.subList(0, n);
+            Collections.reverse(entries);
+
+            // Write them to a temporary file, which then replaces the cache file.
+            File tmp = new File(this.file.getPath() + ".tmp");
+            try {
+                DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+                try {
+                    tmpOut.writeInt(AuditCache.FORMAT_VERSION);
+                    for (Entry<ByteBuffer, byte[]> e : entries) {
+                        AuditCache.writeRecord(e.getKey(), e.getValue(), tmpOut);
+                    }
+                } finally {
+                    tmpOut.close();
+                }
+
+                if (!tmp.renameTo(this.file) && !(this.file.delete() && tmp.renameTo(this.file))) {
+                    throw new IOException("Could not replace \"" + this.file + "\"");
+                }
+            } finally {
+                if (tmp.exists()) tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads all records from the cache file; later records override earlier records with the same key. If the
+     * file has an unknown format, then it is emptied. A truncated or corrupt record, and anything after it, is
+     * removed from the file, so that new records are appended right after the last intact record.
+     */
+    private void
+    load() throws IOException {
+
+        long fileLength = this.file.length();
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+        try {
+            // Notice: "this.size" remains 0 iff the file has an unknown format, so that it is emptied below.
+            if (fileLength >= 4 && in.readInt() == AuditCache.FORMAT_VERSION) this.size = 4;
+
+            while (this.size > 0) {
+                byte[] key = new byte[2 * AuditCache.HASH_LENGTH];
+
+                long remaining = fileLength - this.size - key.length - 4;
+                if (remaining < 0) break;
+
+                in.readFully(key);
+                int length = in.readInt();
+                if (length < 0 || length > remaining) break;
+
+                byte[] record = new byte[length];
+                in.readFully(record);
+
+                this.entries.put(ByteBuffer.wrap(key), record);
+                this.size += key.length + 4 + length;
+            }
+        } catch (EOFException eofe) {
+            ; // The file was truncated concurrently.
+        } finally {
+            in.close();
+        }
+
+        if (this.size != fileLength) {
+            RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
+            try {
+                raf.setLength(this.size);
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * @return The number of bytes written
+     */
+    private static int
+    writeRecord(ByteBuffer key, byte[] record, DataOutputStream out) throws IOException {
+
+        out.write(key.array());
+        out.writeInt(record.length);
+        out.write(record);
+        out.flush();
+
+        return 4 + key.capacity() + record.length;
+    }
+
+    /**
+     * @return The hash of the {@code contentHash} and the absolute path of the {@code file} (which is also what
+     *         CheckStyle reports to the modules), followed by the {@link #contextHash}
+     */
+    private ByteBuffer
+    key(byte[] contentHash, File file) {
+
+        MessageDigest md = AuditCache.sha1();
+        md.update(contentHash);
+        try {
+            md.update(file.getAbsolutePath().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException uee) {
+            throw new AssertionError(uee);
+        }
+
+        byte[] key = Arrays.copyOf(md.digest(), 2 * AuditCache.HASH_LENGTH);
+        System.arraycopy(this.contextHash, 0, key, AuditCache.HASH_LENGTH, AuditCache.HASH_LENGTH);
+
+        return ByteBuffer.wrap(key);
+    }
+
+    private static byte[]
+    encodeEvents(List<AuditEvent> events) throws IOException {
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream      out  = new DataOutputStream(baos);
+
+        out.writeInt(events.size());
+        for (AuditEvent event : events) {
+            LocalizedMessage lm = event.getLocalizedMessage();
+
+            out.writeInt(lm.getLineNo());
+            out.writeInt(lm.getColumnNo());
+            out.writeInt(lm.getColumnCharIndex());
+            out.writeInt(lm.getTokenType());
+            AuditCache.writeString(lm.getSeverityLevel().getName(), out);
+            AuditCache.writeString(lm.getKey(), out);
+            AuditCache.writeString(lm.getMessage(), out);
+            AuditCache.writeString(lm.getSourceName(), out);
+            AuditCache.writeNullableString(lm.getModuleId(), out);
+        }
+        out.flush();
+
+        return baos.toByteArray();
+    }
+
+    private List<AuditEvent>
+    decodeEvents(byte[] record, String fileName) throws IOException, ClassNotFoundException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+        int              n      = in.readInt();
+        List<AuditEvent> result = new ArrayList<AuditEvent>(n);
+        for (int i = 0; i < n; i++) {
+            int           lineNo          = in.readInt();
+            int           columnNo        = in.readInt();
+            int           columnCharIndex = in.readInt();
+            int           tokenType       = in.readInt();
+            SeverityLevel severityLevel   = SeverityLevel.getInstance(AuditCache.readString(in));
+            String        key             = AuditCache.readString(in);
+            String        message         = AuditCache.readString(in);
+            String        sourceName      = AuditCache.readString(in);
+            String        moduleId        = AuditCache.readNullableString(in);
+
+            Class<?> sourceClass = this.sourceClasses.get(sourceName);
+            if (sourceClass == null) {
+                sourceClass = Class.forName(sourceName, false, Checker.class.getClassLoader());
+                this.sourceClasses.put(sourceName, sourceClass);
+            }
+
+            // The already-localized message is stored as the "custom message", which is a MessageFormat pattern;
+            // hence quote it.
+            String customMessage = "'" + message.replace("'", "''") + "'";
+
+            result.add(new AuditEvent(this, fileName, new LocalizedMessage(
+                lineNo,
+                columnNo,
+                columnCharIndex,
+                tokenType,
+                sourceClass.getPackage() == null ? "messages" : sourceClass.getPackage().getName() + ".messages",
+                key,
+                new Object[0],
+                severityLevel,
+                moduleId,
+                sourceClass,
+                customMessage
+            )));
+        }
+
+        return result;
+    }
+
+    /**
+     * Unlike {@link DataOutputStream#writeUTF(String)}, supports strings of any length (e.g. long messages).
+     */
+    private static void
+    writeString(String s, DataOutputStream out) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String
+    readString(DataInputStream in) throws IOException {
+
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) throw new IOException("Invalid string length " + length);
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void
+    writeNullableString(@Nullable String s, DataOutputStream out) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) AuditCache.writeString(s, out);
+    }
+
+    @Nullable private static String
+    readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? AuditCache.readString(in) : null;
+    }
+
+    /**
+     * @return A hash of everything besides the file contents that influences the audit results
+     */
+    private static byte[]
+    contextHash(Configuration configuration) throws IOException {
+
+        MessageDigest    md  = AuditCache.sha1();
+        DataOutputStream out = new DataOutputStream(new MessageDigestOutputStream(md));
+
+        AuditCache.writeString(AuditCache.version(Checker.class), out);
+        AuditCache.writeString(AuditCache.version(AbstractWrapCheck.class), out);
+        AuditCache.hash(configuration, out);
+        out.flush();
+
+        return md.digest();
+    }
+
+    /**
+     * Feeds the {@code configuration} (recursively), and the contents of all files that it refers to, into the
+     * {@code out}.
+     */
+    private static void
+    hash(Configuration configuration, DataOutputStream out) throws IOException {
+
+        AuditCache.writeString(configuration.getName(), out);
+
+        String[] attributeNames = configuration.getAttributeNames().clone();
+        Arrays.sort(attributeNames);
+        out.writeInt(attributeNames.length);
+        for (String attributeName : attributeNames) {
+            String value;
+            try {
+                value = configuration.getAttribute(attributeName);
+            } catch (CheckstyleException ce) {
+                throw new IOException(ce.toString());
+            }
+            AuditCache.writeString(attributeName, out);
+            AuditCache.writeString(value, out);
+
+            // E.g. a suppression file or a header file. (CheckStyle's own cache file changes with every run, and
+            // does not influence the results.)
+            if ("cacheFile".equals(attributeName)) continue;
+            File file = new File(value);
+            if (file.isFile()) out.write(AuditCache.contentHash(file));
+        }
+
+        Map<String, String> messages = new TreeMap<String, String>(configuration.getMessages());
+        out.writeInt(messages.size());
+        for (Entry<String, String> e : messages.entrySet()) {
+            AuditCache.writeString(e.getKey(), out);
+            AuditCache.writeString(e.getValue(), out);
+        }
+
+        Configuration[] children = configuration.getChildren();
+        out.writeInt(children.length);
+        for (Configuration child : children) AuditCache.hash(child, out);
+    }
+
+    /**
+     * @return The version of the JAR file that contains the {@code clasS}, or, if that is unknown, the location and
+     *         the modification time of that JAR file
+     */
+    private static String
+    version(Class<?> clasS) {
+
+        Package pkg = clasS.getPackage();
+        if (pkg != null && pkg.getImplementationVersion() != null) return pkg.getImplementationVersion();
+
+        try {
+            File jarFile = new File(clasS.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return jarFile + "@" + jarFile.lastModified() + "/" + jarFile.length();
+        } catch (Exception e) {
+            return "?";
+        }
+    }
+
+    private static MessageDigest
+    sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new AssertionError(nsae);
+        }
+    }
+
+    /**
+     * An {@link OutputStream} that feeds all bytes into a {@link MessageDigest}.
+     */
+    private static
+    class MessageDigestOutputStream extends OutputStream {
+
+        private final MessageDigest md;
+
+        MessageDigestOutputStream(MessageDigest md) {
+            this.md = md;
+        }
+
+        @Override public void
+        write(int b) {
+            this.md.update((byte) b);
+        }
+
+        @Override public void
+        write(byte[] b, int off, int len) {
+            this.md.update(b, off, len);
+        }
+    }
+}
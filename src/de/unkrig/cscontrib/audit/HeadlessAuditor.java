@@ -0,0 +1,583 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.audit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.puppycrawl.tools.checkstyle.Checker;
+import com.puppycrawl.tools.checkstyle.ConfigurationLoader;
+import com.puppycrawl.tools.checkstyle.PropertiesExpander;
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.AuditListener;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.Configuration;
+
+import de.unkrig.commons.nullanalysis.Nullable;
+
+/**
+ * Audits JAVA source files with CheckStyle, using multiple threads.
+ * <p>
+ * CheckStyle's {@link Checker} processes files serially, and checks keep per-file state, so a checker cannot be
+ * shared between threads. Instead, the worker threads take small batches of files from a shared list, so that busy
+ * threads do not hold up idle ones, and configure a {@link Checker} (and thus a {@code TreeWalker} and check
+ * instances) for each batch from the same {@link Configuration}. (A checker cannot process more than one batch,
+ * because {@link Checker#process(List)} destroys the file set checks when it is done.)
+ * <p>
+ * The results are independent from the number of threads: They are reported in the order of the files, and, within
+ * each file, in the order that CheckStyle reports them.
+ * <p>
+ * Notice that file set checks that correlate <em>multiple</em> files (e.g. "Translation") do not work correctly,
+ * because the files are processed in separate batches.
+ * <p>
+ * Notice also that the checkers' "cacheFile" attribute is ignored when more than one thread is used, because each
+ * checker would load, update and write that file on its own, and thus lose the updates of the others. Use an {@link
+ * AuditCache} instead.
+ * <p>
+ * Usage:
+ * <pre>
+ * java de.unkrig.cscontrib.audit.HeadlessAuditor [ -threads <var>n</var> ] [ -xml ]
+ *     [ -cache <var>cache-file</var> [ -cache-max-size <var>bytes</var> ] ]
+ *     -config <var>checkstyle-config.xml</var> <var>file-or-dir</var> ...
+ * </pre>
+ * "-cache" enables the {@link AuditCache}, so that unchanged files are not audited again; the cache file is
+ * reduced when it exceeds the maximum size (default: 64 MB).
+ * <p>
+ * "-xml" produces the same format as CheckStyle's XML logger; otherwise the output is similar to that of
+ * CheckStyle's plain logger.
+ */
+public final
+class HeadlessAuditor {
+
+    /**
+     * The name of the {@link Checker}'s attribute that configures CheckStyle's own cache.
+     */
+    private static final String CACHE_FILE_ATTRIBUTE = "cacheFile";
+
+    /**
+     * The maximum number of files that one {@link Checker} processes.
+     */
+    private static final int MAX_BATCH_SIZE = 50;
+
+    private final Configuration  configuration;
+    private final int            threadCount;
+    @Nullable private AuditCache cache;
+
+    /**
+     * @param threadCount The number of worker threads; values less than 1 mean "the number of processors"
+     */
+    public
+    HeadlessAuditor(Configuration configuration, int threadCount) {
+
+        this.threadCount = threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors();
+
+        if (
+            this.threadCount > 1
+            && Arrays.asList(configuration.getAttributeNames()).contains(HeadlessAuditor.CACHE_FILE_ATTRIBUTE)
+        ) {
+            System.err.println(
+                "Ignoring the \""
+                + HeadlessAuditor.CACHE_FILE_ATTRIBUTE
+                + "\" attribute, because it does not work with multiple threads"
+            );
+            configuration = new WithoutCacheFile(configuration);
+        }
+        this.configuration = configuration;
+    }
+
+    /**
+     * Makes {@link #audit(List)} replay the results of files that are in the {@code cache}, instead of auditing
+     * them, and store the results of all other files in the {@code cache}.
+     *
+     * @param cache {@code null} to disable caching
+     */
+    public void
+    setCache(@Nullable AuditCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Audits the {@code files} concurrently.
+     *
+     * @return The audit events for each of the {@code files}, in the order of the {@code files}; files without
+     *         events map to empty lists
+     */
+    public Map<File, List<AuditEvent>>
+    audit(final List<File> files) throws CheckstyleException, InterruptedException {
+
+        final AtomicReferenceArray<List<AuditEvent>>
+        results = new AtomicReferenceArray<List<AuditEvent>>(files.size());
+
+        final AtomicInteger        next        = new AtomicInteger();
+        @Nullable final AuditCache cache       = this.cache;
+        final AtomicBoolean        cacheFailed = new AtomicBoolean();
+
+        int             threadCount = Math.max(1, Math.min(this.threadCount, files.size()));
+        final int       batchSize   = Math.max(1, Math.min(
+            HeadlessAuditor.MAX_BATCH_SIZE,
+            files.size() / (4 * threadCount)
+        ));
+        ExecutorService executor    = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threadCount; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    @Override @Nullable public Void
+                    call() throws CheckstyleException {
+
+                        try {
+                            for (;;) {
+                                int from = next.getAndAdd(batchSize);
+                                if (from >= files.size()) break;
+                                int to = Math.min(from + batchSize, files.size());
+
+                                // Replay the cached results iff the file's contents did not change.
+                                List<Integer> indexes       = new ArrayList<Integer>();
+                                List<byte[]>  contentHashes = new ArrayList<byte[]>();
+                                for (int i = from; i < to; i++) {
+                                    File file = files.get(i);
+
+                                    byte[] contentHash = null;
+                                    if (cache != null) {
+                                        try {
+                                            contentHash = AuditCache.contentHash(file);
+                                        } catch (IOException ioe) {
+                                            ; // Let the checker report the problem.
+                                        }
+                                        if (contentHash != null) {
+                                            List<AuditEvent> events = cache.get(contentHash, file);
+                                            if (events != null) {
+                                                results.set(i, events);
+                                                continue;
+                                            }
+                                        }
+                                    }
+                                    indexes.add(i);
+                                    contentHashes.add(contentHash);
+                                }
+                                if (indexes.isEmpty()) continue;
+
+                                List<File> batch = new ArrayList<File>();
+                                for (int i : indexes) batch.add(files.get(i));
+
+                                EventCollector collector = new EventCollector();
+                                Checker        checker   = HeadlessAuditor.this.newChecker(collector);
+                                try {
+                                    checker.process(batch);
+                                } finally {
+                                    checker.destroy();
+                                }
+
+                                for (int k = 0; k < indexes.size(); k++) {
+                                    File   file        = batch.get(k);
+                                    byte[] contentHash = contentHashes.get(k);
+
+                                    // The checker reports absolute paths; files that it skips have no events.
+                                    List<AuditEvent> events = collector.events.get(file.getAbsolutePath());
+                                    if (events == null) events = new ArrayList<AuditEvent>();
+                                    results.set(indexes.get(k), events);
+
+                                    // Results that are incomplete due to an exception must not be cached. A cache
+                                    // that cannot be written is no reason to abort the audit.
+                                    if (
+                                        cache != null
+                                        && contentHash != null
+                                        && !collector.exceptions.contains(file.getAbsolutePath())
+                                        && !cacheFailed.get()
+                                    ) {
+                                        try {
+                                            cache.put(contentHash, file, events);
+                                        } catch (IOException ioe) {
+                                            if (!cacheFailed.getAndSet(true)) {
+                                                System.err.println(
+                                                    "Writing audit cache: "
+                                                    + ioe
+                                                    + "; continuing without"
+                                                );
+                                            }
+                                        }
+                                    }
+                                }
+                            }
+                        } catch (CheckstyleException ce) {
+
+                            // Make the other workers stop early.
+                            next.set(files.size());
+                            throw ce;
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof CheckstyleException) throw (CheckstyleException) cause;
+                    if (cause instanceof RuntimeException)    throw (RuntimeException) cause;
+                    if (cause instanceof Error)               throw (Error) cause;
+                    throw new CheckstyleException(cause.toString(), cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<File, List<AuditEvent>> result = new LinkedHashMap<File, List<AuditEvent>>();
+        for (int i = 0; i < results.length(); i++) result.put(files.get(i), results.get(i));
+        return result;
+    }
+
+    /**
+     * Collects the audit events of one batch of files.
+     */
+    private static
+    class EventCollector implements AuditListener {
+
+        /**
+         * The events of each processed file, by file name.
+         */
+        final Map<String, List<AuditEvent>> events = new HashMap<String, List<AuditEvent>>();
+
+        /**
+         * The names of the files for which an exception was reported.
+         */
+        final Set<String> exceptions = new HashSet<String>();
+
+        @Override public void auditStarted(@Nullable AuditEvent event)  {}
+        @Override public void auditFinished(@Nullable AuditEvent event) {}
+        @Override public void fileFinished(@Nullable AuditEvent event)  {}
+
+        @Override public void
+        fileStarted(@Nullable AuditEvent event) {
+            assert event != null;
+            this.events.put(event.getFileName(), new ArrayList<AuditEvent>());
+        }
+
+        @Override public void
+        addError(@Nullable AuditEvent event) {
+            assert event != null;
+
+            List<AuditEvent> events = this.events.get(event.getFileName());
+            if (events == null) this.events.put(event.getFileName(), (events = new ArrayList<AuditEvent>()));
+            events.add(event);
+        }
+
+        @Override public void
+        addException(@Nullable AuditEvent event, @Nullable Throwable throwable) {
+            assert event != null;
+            this.exceptions.add(event.getFileName());
+            System.err.println(event.getFileName() + ": " + throwable);
+        }
+    }
+
+    /**
+     * Hides the {@link Checker}'s {@link HeadlessAuditor#CACHE_FILE_ATTRIBUTE} of the {@code delegate}.
+     */
+    private static
+    class WithoutCacheFile implements Configuration {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Configuration delegate;
+
+        WithoutCacheFile(Configuration delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override public String[]
+        getAttributeNames() {
+            List<String> result = new ArrayList<String>(Arrays.asList(this.delegate.getAttributeNames()));
+            result.remove(HeadlessAuditor.CACHE_FILE_ATTRIBUTE);
+            return result.toArray(new String[result.size()]);
+        }
+
+        @Override public String
+        getAttribute(@Nullable String name) throws CheckstyleException {
+            if (HeadlessAuditor.CACHE_FILE_ATTRIBUTE.equals(name)) {
+                throw new CheckstyleException("missing key '" + name + "' in " + this.getName());
+            }
+            return this.delegate.getAttribute(name);
+        }
+
+        @Override public Configuration[]
+        getChildren() { return this.delegate.getChildren(); }
+
+        @Override public String
+        getName() { return this.delegate.getName(); }
+
+        @Override public Map<String, String>
+        getMessages() { return this.delegate.getMessages(); }
+    }
+
+    /**
+     * @return A new checker, configured from the {@link #configuration}, that reports to the {@code listener}
+     */
+    private Checker
+    newChecker(AuditListener listener) throws CheckstyleException {
+
+        Checker checker = new Checker();
+        checker.setModuleClassLoader(Checker.class.getClassLoader());
+        checker.configure(this.configuration);
+        checker.addListener(listener);
+
+        return checker;
+    }
+
+    /**
+     * Adds the {@code file}, or, if it is a directory, all ".java" files under it, in a deterministic order.
+     */
+    public static void
+    findJavaFiles(File file, List<File> result) {
+
+        if (file.isDirectory()) {
+            File[] members = file.listFiles();
+            if (members == null) return;
+            Arrays.sort(members);
+            for (File member : members) HeadlessAuditor.findJavaFiles(member, result);
+        } else
+        if (file.getName().endsWith(".java")) {
+            result.add(file);
+        }
+    }
+
+    /**
+     * Loads a CheckStyle configuration; "${...}" references are replaced with the values of system properties.
+     */
+    public static Configuration
+    loadConfiguration(File configFile) throws CheckstyleException {
+        return ConfigurationLoader.loadConfiguration(
+            configFile.getPath(),
+            new PropertiesExpander(System.getProperties())
+        );
+    }
+
+    /**
+     * See {@link HeadlessAuditor}.
+     */
+    public static void
+    main(String[] args) throws Exception {
+
+        int            threadCount  = 0;
+        boolean        xml          = false;
+        @Nullable File configFile   = null;
+        @Nullable File cacheFile    = null;
+        long           cacheMaxSize = 64L * 1024 * 1024;
+
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("-"); i++) {
+                String arg = args[i];
+                if ("-threads".equals(arg)) {
+                    threadCount = Integer.parseInt(args[++i]);
+                } else
+                if ("-xml".equals(arg)) {
+                    xml = true;
+                } else
+                if ("-config".equals(arg)) {
+                    configFile = new File(args[++i]);
+                } else
+                if ("-cache".equals(arg)) {
+                    cacheFile = new File(args[++i]);
+                } else
+                if ("-cache-max-size".equals(arg)) {
+                    cacheMaxSize = Long.parseLong(args[++i]);
+                } else
+                {
+                    HeadlessAuditor.usage("Invalid option \"" + arg + "\"");
+                    return;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException aioobe) {
+            HeadlessAuditor.usage("Argument missing after \"" + args[args.length - 1] + "\"");
+            return;
+        }
+        if (configFile == null || i == args.length) {
+            HeadlessAuditor.usage("\"-config\" and at least one file or directory must be given");
+            return;
+        }
+
+        List<File> files = new ArrayList<File>();
+        for (; i < args.length; i++) HeadlessAuditor.findJavaFiles(new File(args[i]), files);
+
+        Configuration   configuration = HeadlessAuditor.loadConfiguration(configFile);
+        HeadlessAuditor auditor       = new HeadlessAuditor(configuration, threadCount);
+
+        Map<File, List<AuditEvent>> events;
+        if (cacheFile == null) {
+            events = auditor.audit(files);
+        } else {
+            AuditCache cache = new AuditCache(cacheFile, configuration, cacheMaxSize);
+            try {
+                auditor.setCache(cache);
+                events = auditor.audit(files);
+            } finally {
+                cache.close();
+            }
+            System.err.println(
+                "Audit cache: "
+                + cache.getHitCount()
+                + " file(s) replayed, "
+                + cache.getMissCount()
+                + " file(s) audited"
+            );
+        }
+
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+        try {
+            if (xml) {
+                HeadlessAuditor.printXml(events, pw);
+            } else {
+                HeadlessAuditor.printPlain(events, pw);
+            }
+        } finally {
+            pw.flush();
+        }
+    }
+
+    private static void
+    usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage:");
+        System.err.println("  HeadlessAuditor [ -threads <n> ] [ -xml ]");
+        System.err.println("      [ -cache <cache-file> [ -cache-max-size <bytes> ] ]");
+        System.err.println("      -config <checkstyle-config.xml> <file-or-dir> ...");
+        System.exit(1);
+    }
+
+    private static void
+    printPlain(Map<File, List<AuditEvent>> events, PrintWriter pw) {
+
+        for (Entry<File, List<AuditEvent>> e : events.entrySet()) {
+            for (AuditEvent event : e.getValue()) {
+                pw.println(
+                    "["
+                    + event.getSeverityLevel().getName().toUpperCase(Locale.US)
+                    + "] "
+                    + e.getKey().getPath()
+                    + ":"
+                    + event.getLine()
+                    + (event.getColumn() > 0 ? ":" + event.getColumn() : "")
+                    + ": "
+                    + event.getMessage()
+                    + " ["
+                    + HeadlessAuditor.moduleName(event)
+                    + "]"
+                );
+            }
+        }
+    }
+
+    private static void
+    printXml(Map<File, List<AuditEvent>> events, PrintWriter pw) {
+
+        pw.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        pw.println("<checkstyle>");
+        for (Entry<File, List<AuditEvent>> e : events.entrySet()) {
+            pw.println("<file name=\"" + HeadlessAuditor.xmlEscape(e.getKey().getPath()) + "\">");
+            for (AuditEvent event : e.getValue()) {
+                pw.println(
+                    "<error line=\""
+                    + event.getLine()
+                    + (event.getColumn() > 0 ? "\" column=\"" + event.getColumn() : "")
+                    + "\" severity=\""
+                    + event.getSeverityLevel().getName()
+                    + "\" message=\""
+                    + HeadlessAuditor.xmlEscape(event.getMessage())
+                    + "\" source=\""
+                    + HeadlessAuditor.xmlEscape(
+                        event.getModuleId() != null ? event.getModuleId() : event.getSourceName()
+                    )
+                    + "\"/>"
+                );
+            }
+            pw.println("</file>");
+        }
+        pw.println("</checkstyle>");
+    }
+
+    /**
+     * @return The module id of the event, or the simple name of the check without the "Check" suffix
+     */
+    private static String
+    moduleName(AuditEvent event) {
+
+        String moduleId = event.getModuleId();
+        if (moduleId != null) return moduleId;
+
+        String sourceName = event.getSourceName();
+        sourceName = sourceName.substring(sourceName.lastIndexOf('.') + 1);
+        if (sourceName.endsWith("Check")) sourceName = sourceName.substring(0, sourceName.length() - 5);
+        return sourceName;
+    }
+
+    private static String
+    xmlEscape(String s) {
+
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '<':  sb.append("&lt;");   break;
+            case '>':  sb.append("&gt;");   break;
+            case '&':  sb.append("&amp;");  break;
+            case '"':  sb.append("&quot;"); break;
+            case '\'': sb.append("&apos;"); break;
+            default:
+                if (c < ' ' && c != '\t' && c != '\n' && c != '\r') {
+                    sb.append("&#").append((int) c).append(';');
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
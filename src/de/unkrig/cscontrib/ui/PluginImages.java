@@ -26,17 +26,26 @@
 
 package de.unkrig.cscontrib.ui;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.sf.eclipsecs.ui.CheckstyleUIPlugin;
 
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 
+import de.unkrig.commons.nullanalysis.Nullable;
+
 /**
  * Utility class that manages this plugin's images.
+ * <p>
+ * The methods of this class may be invoked from any thread. Images are created and disposed only on the display
+ * thread, which also guarantees that each image is created at most once.
  */
 public abstract
 class PluginImages {
@@ -44,7 +53,18 @@ class PluginImages {
     private
     PluginImages() {}
 
-    private static final Map<ImageDescriptor, Image> CACHED_IMAGES = new HashMap<ImageDescriptor, Image>();
+    private static final ConcurrentMap<ImageDescriptor, Image>
+    CACHED_IMAGES = new ConcurrentHashMap<ImageDescriptor, Image>();
+
+    /**
+     * The number of image handles that are currently allocated by this class.
+     */
+    private static final AtomicInteger HANDLE_COUNT = new AtomicInteger();
+
+    /**
+     * The display on which the cached images were created.
+     */
+    @Nullable private static volatile Display display;
 
     /**
      * An icon that visualized the addition of an element.
@@ -68,30 +88,92 @@ class PluginImages {
     }
 
     /**
-     * Gets an image from a given descriptor.
+     * Gets an image from a given descriptor. The image is created on the display thread when it is requested for the
+     * first time, and is disposed by {@link #clearCachedImages()}.
      *
      * @param descriptor the descriptor
      * @return the image
      */
     public static Image
-    getImage(ImageDescriptor descriptor) {
+    getImage(final ImageDescriptor descriptor) {
 
         Image image = PluginImages.CACHED_IMAGES.get(descriptor);
-        if (image == null) {
-            image = descriptor.createImage();
-            assert image != null : "Image could not be created from descriptor '" + descriptor + "'";
-            PluginImages.CACHED_IMAGES.put(descriptor, image);
-        }
+        if (image != null) return image;
+
+        // Notice: Because all images are created on the display thread, no further synchronization is necessary.
+        if (Display.getCurrent() != null) return PluginImages.createImage(descriptor);
+
+        final Image[] result = new Image[1];
+        PlatformUI.getWorkbench().getDisplay().syncExec(new Runnable() {
+
+            @Override public void
+            run() {
+                result[0] = PluginImages.createImage(descriptor);
+            }
+        });
+        return result[0];
+    }
+
+    /**
+     * Must only be invoked on the display thread.
+     */
+    private static Image
+    createImage(ImageDescriptor descriptor) {
+
+        Image image = PluginImages.CACHED_IMAGES.get(descriptor);
+        if (image != null) return image;
+
+        image = descriptor.createImage();
+        assert image != null : "Image could not be created from descriptor '" + descriptor + "'";
+
+        PluginImages.display = Display.getCurrent();
+        PluginImages.CACHED_IMAGES.put(descriptor, image);
+        PluginImages.HANDLE_COUNT.incrementAndGet();
+
         return image;
     }
 
     /**
-     * Disposes the cached images and clears the cache.
+     * @return The number of image handles that are currently allocated by this class
+     */
+    public static int
+    getHandleCount() {
+        return PluginImages.HANDLE_COUNT.get();
+    }
+
+    /**
+     * Disposes the cached images and clears the cache. May be invoked from any thread; the images are disposed on
+     * the display thread (asynchronously, if invoked from another thread, because the display thread may be waiting
+     * for the invoking thread). If the display is already disposed, then so are the images, and the cache is merely
+     * cleared.
      */
     public static void
     clearCachedImages() {
-        for (Image image : PluginImages.CACHED_IMAGES.values()) image.dispose();
 
-        PluginImages.CACHED_IMAGES.clear();
+        Display display = PluginImages.display;
+        if (display == null || display.isDisposed()) {
+            PluginImages.CACHED_IMAGES.clear();
+            PluginImages.HANDLE_COUNT.set(0);
+            return;
+        }
+
+        Runnable disposer = new Runnable() {
+
+            @Override public void
+            run() {
+                for (Iterator<Image> it = PluginImages.CACHED_IMAGES.values().iterator(); it.hasNext();) {
+                    Image image = it.next();
+                    it.remove();
+                    image.dispose();
+                    PluginImages.HANDLE_COUNT.decrementAndGet();
+                }
+            }
+        };
+
+        if (display.getThread() == Thread.currentThread()) {
+            disposer.run();
+        } else {
+            display.asyncExec(disposer);
+        }
     }
 }
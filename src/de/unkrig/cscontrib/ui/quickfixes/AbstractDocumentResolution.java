@@ -26,11 +26,16 @@
 
 package de.unkrig.cscontrib.ui.quickfixes;
 
-import java.text.MessageFormat;
-import java.text.ParsePosition;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import net.sf.eclipsecs.core.builder.CheckstyleMarker;
 import net.sf.eclipsecs.core.config.meta.RuleMetadata;
@@ -39,25 +44,33 @@ import net.sf.eclipsecs.ui.Messages;
 import net.sf.eclipsecs.ui.quickfixes.ICheckstyleMarkerResolution;
 
 import org.eclipse.core.filebuffers.FileBuffers;
-import org.eclipse.core.filebuffers.ITextFileBuffer;
-import org.eclipse.core.filebuffers.ITextFileBufferManager;
-import org.eclipse.core.filebuffers.LocationKind;
 import org.eclipse.core.resources.IFile;
 import org.eclipse.core.resources.IMarker;
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentRewriteSession;
+import org.eclipse.jface.text.DocumentRewriteSessionType;
 import org.eclipse.jface.text.IDocument;
-import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.source.IAnnotationModel;
 import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.eclipse.text.edits.ReplaceEdit;
+import org.eclipse.text.edits.TextEdit;
 import org.eclipse.ui.texteditor.MarkerAnnotation;
 import org.eclipse.ui.views.markers.WorkbenchMarkerResolution;
 
 import de.unkrig.commons.nullanalysis.NotNull;
 import de.unkrig.commons.nullanalysis.NotNullByDefault;
+import de.unkrig.commons.nullanalysis.Nullable;
 
 /**
  * Abstract base class for marker resolutions through document modification.
@@ -65,44 +78,59 @@ import de.unkrig.commons.nullanalysis.NotNullByDefault;
 @NotNullByDefault(false) public abstract
 class AbstractDocumentResolution extends WorkbenchMarkerResolution implements ICheckstyleMarkerResolution {
 
-    private boolean      autoCommit;
-    private RuleMetadata metadata;
+    /**
+     * While a marker is being resolved, {@link #replace(IDocument, int, int, String)} adds the modifications to this
+     * edit instead of modifying the document immediately.
+     */
+    private static final ThreadLocal<MultiTextEdit> PENDING_EDIT = new ThreadLocal<MultiTextEdit>();
+
+    private final MarkerResolutionSupport support = new MarkerResolutionSupport(
+        new MarkerResolutionSupport.Resolver() {
+
+            @Override public String
+            getLabel() {
+                return AbstractDocumentResolution.this.getLabel();
+            }
+
+            @Override public boolean
+            canFixMessageKey(String messageKey) {
+                return AbstractDocumentResolution.this.canFixMessageKey(messageKey);
+            }
+
+            @Override public List<MarkerAnnotation>
+            resolve(
+                IFile                 file,
+                List<IMarker>         markers,
+                IDocument             document,
+                IAnnotationModel      annotationModel,
+                MarkerAnnotationIndex annotationIndex
+            ) throws BadLocationException {
+                return AbstractDocumentResolution.this.resolve(markers, document, annotationModel, annotationIndex);
+            }
+        }
+    );
 
     // ICheckstyleMarkerResolution declares this method AFTER version 5.6.0.
     // SUPPRESS CHECKSTYLE JavadocMethod
     @Override @SuppressWarnings("all") /**@Override*/ public void
     setRuleMetaData(RuleMetadata metadata) {
-        this.metadata = metadata;
+        this.support.setRuleMetaData(metadata);
     }
 
     @Override public void
     setAutoCommitChanges(boolean autoCommit) {
-        this.autoCommit = autoCommit;
+        this.support.setAutoCommitChanges(autoCommit);
     }
 
     @Override public boolean
     canFix(IMarker marker) {
-
-        try {
-            if (!CheckstyleMarker.MARKER_ID.equals(marker.getType())) return false;
-        } catch (CoreException e) {
-            throw new IllegalStateException(e);
-        }
-
-        String moduleName = marker.getAttribute(CheckstyleMarker.MODULE_NAME, null);
-        return (
-            (
-                this.metadata == null // Only ECLIPSE-CS > 5.6.0 sets the metadata!
-                || this.metadata.getInternalName().equals(moduleName)
-                || this.metadata.getAlternativeNames().contains(moduleName)
-            )
-            && this.canFixMessageKey(marker.getAttribute(CheckstyleMarker.MESSAGE_KEY, null))
-        );
+        return this.support.canFix(marker);
     }
 
     /**
      * If the checks produces different markers and the quickfix is applicable to only part of them, then the
-     * quickfix must override this method.
+     * quickfix must override this method. The results are memoized per message key, so the implementation must
+     * depend on nothing but the {@code messageKey}.
      *
      * @param messageKey As specified in 'checkstyle-metadata.xml' in element 'message-key'
      * @return           Whether this quickfix is applicable or not
@@ -117,93 +145,327 @@ class AbstractDocumentResolution extends WorkbenchMarkerResolution implements IC
 
     @Override public IMarker[]
     findOtherMarkers(IMarker[] markers) {
+        return this.support.findOtherMarkers(markers);
+    }
 
-        Set<IMarker> candidates = new HashSet<IMarker>();
-
-        for (IMarker m : markers) {
-
-            if (this.canFix(m)) {
-                candidates.add(m);
-            }
-        }
-
-        return candidates.toArray(new IMarker[candidates.size()]);
+    /**
+     * Like {@link #findOtherMarkers(IMarker[])}, but examines the {@code markers} in a cancelable background job, and
+     * reports the matching markers incrementally to the {@code listener}.
+     *
+     * @return The job, which is already scheduled
+     */
+    public Job
+    findOtherMarkers(IMarker[] markers, FindOtherMarkersJob.Listener listener) {
+        return this.support.findOtherMarkers(markers, listener);
     }
 
     @Override public void
     run(IMarker marker) {
+        this.run(new IMarker[] { marker }, new NullProgressMonitor());
+    }
 
-        IPath path;
-        {
-            IResource resource = marker.getResource();
-            if (!(resource instanceof IFile)) return;
-            path = resource.getLocation();
+    /**
+     * Groups the {@code markers} by file, and resolves all markers of each file with only one connection to the
+     * file's text file buffer, and only one commit. Iff invoked outside of the UI thread, and while the calling
+     * thread holds no scheduling rule (e.g. from a plain {@link Job}), then the files are processed {@link
+     * #runConcurrently(IMarker[], int, IProgressMonitor) concurrently}; otherwise one after the other.
+     */
+    @Override public void
+    run(IMarker[] markers, IProgressMonitor monitor) {
+
+        if (Display.getCurrent() != null || Job.getJobManager().currentRule() != null) {
+            this.support.run(markers, monitor);
+            return;
         }
 
-        ITextFileBufferManager bufferManager = null;
         try {
-            bufferManager = FileBuffers.getTextFileBufferManager();
-            bufferManager.connect(path, LocationKind.NORMALIZE, null);
-
-            ITextFileBuffer textFileBuffer = bufferManager.getTextFileBuffer(path, LocationKind.NORMALIZE);
-
-            IAnnotationModel annotationModel = textFileBuffer.getAnnotationModel();
-            assert annotationModel != null : "Text file buffer is disconnected";
+            this.runConcurrently(markers, 0, monitor);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-            MarkerAnnotation annotation = AbstractDocumentResolution.getMarkerAnnotation(annotationModel, marker);
+    /**
+     * Like {@link #run(IMarker[], IProgressMonitor)}, but resolves the markers of different files concurrently, with
+     * up to {@code threadCount} worker threads. While a worker thread processes a file, it holds the file's
+     * "modify" scheduling rule, so that no other job can modify the same file.
+     * <p>
+     * Files whose text file buffers request a synchronization context (typically because they are open in an
+     * editor) are not processed by the worker threads, but, after all other files, in the synchronization context
+     * of the text file buffer manager (typically the UI thread).
+     * <p>
+     * This method must not be invoked on the UI thread, nor while the calling thread holds a scheduling rule that
+     * conflicts with any of the files.
+     *
+     * @param threadCount           Values less than 1 mean "the number of processors"
+     * @throws InterruptedException The calling thread was interrupted while it waited for the worker threads
+     */
+    public void
+    runConcurrently(IMarker[] markers, int threadCount, final IProgressMonitor monitor)
+    throws InterruptedException {
 
-            if (annotation == null) return;
+        Map<IFile, List<IMarker>> markersByFile = MarkerResolutionSupport.groupByFile(markers);
 
-            String   messageKey;
-            Object[] arguments;
-            {
-                messageKey = marker.getAttribute(CheckstyleMarker.MESSAGE_KEY, null);
+        // "IProgressMonitor"s are not thread-safe, so all access to the monitor is synchronized.
+        monitor.beginTask(this.getLabel(), markers.length);
+        try {
+            final Map<IFile, List<IMarker>> deferred = new LinkedHashMap<IFile, List<IMarker>>();
 
-                String message;
-                {
-                    Object o = marker.getAttribute("message");
-                    if (!(o instanceof String)) return;
-                    message = (String) o;
+            ExecutorService executorService = Executors.newFixedThreadPool(
+                threadCount > 0 ? threadCount : Runtime.getRuntime().availableProcessors()
+            );
+            try {
+                List<Future<?>> futures = new ArrayList<Future<?>>();
+                for (Entry<IFile, List<IMarker>> e : markersByFile.entrySet()) {
+                    final IFile         file        = e.getKey();
+                    final List<IMarker> fileMarkers = e.getValue();
+
+                    futures.add(executorService.submit(new Runnable() {
+
+                        @Override public void
+                        run() {
+
+                            synchronized (monitor) {
+                                if (monitor.isCanceled()) return;
+                                monitor.subTask(file.getName());
+                            }
+
+                            ISchedulingRule rule = ResourcesPlugin.getWorkspace().getRuleFactory().modifyRule(file);
+                            Job.getJobManager().beginRule(rule, null);
+                            try {
+                                if (!AbstractDocumentResolution.this.support.run(file, fileMarkers, true)) {
+                                    synchronized (deferred) { deferred.put(file, fileMarkers); }
+                                    return;
+                                }
+                            } finally {
+                                Job.getJobManager().endRule(rule);
+                            }
+
+                            synchronized (monitor) { monitor.worked(fileMarkers.size()); }
+                        }
+                    }));
                 }
 
-                MessageFormat messageFormat = new MessageFormat(messageKey);
-                arguments = messageFormat.parse(message, new ParsePosition(0));
-                if (arguments == null) {
-                    int idx = message.indexOf(": ");
-                    if (idx != -1) {
-                        arguments = messageFormat.parse(message.substring(idx + 2), new ParsePosition(0));
+                for (Future<?> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException ee) {
+                        CheckstyleLog.log(ee.getCause(), Messages.AbstractASTResolution_msgErrorQuickfix);
                     }
                 }
+            } finally {
+                executorService.shutdownNow();
             }
 
-            // Invoke the quickfix.
-            IDocument document = textFileBuffer.getDocument();
-            assert document != null;
-            this.resolve(
-                messageKey,
-                arguments,
-                document,
-                annotationModel.getPosition(annotation).getOffset(),
-                marker.getResource()
-            );
+            // Now process the files that must be modified in their synchronization context.
+            for (Entry<IFile, List<IMarker>> e : deferred.entrySet()) {
+                final IFile         file        = e.getKey();
+                final List<IMarker> fileMarkers = e.getValue();
 
-            annotation.markDeleted(true);
+                if (monitor.isCanceled()) return;
+                monitor.subTask(file.getName());
 
-            // commit changes to underlying file
-            if (this.autoCommit) textFileBuffer.commit(new NullProgressMonitor(), false);
-        } catch (CoreException e) {
-            CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
-        } catch (MalformedTreeException e) {
-            CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
+                final CountDownLatch done = new CountDownLatch(1);
+                FileBuffers.getTextFileBufferManager().execute(new Runnable() {
+
+                    @Override public void
+                    run() {
+                        try {
+                            AbstractDocumentResolution.this.support.run(file, fileMarkers, false);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+                done.await();
+
+                monitor.worked(fileMarkers.size());
+            }
         } finally {
+            monitor.done();
+        }
+    }
 
-            if (bufferManager != null) {
-                try {
-                    bufferManager.disconnect(path, LocationKind.NORMALIZE, null);
-                } catch (CoreException e) {
-                    CheckstyleLog.log(e, "Error processing quickfix"); //$NON-NLS-1$
-                }
+    /**
+     * Resolves the given {@code markers}, which must all relate to the same file, and modifies the {@code document}
+     * only once for all markers.
+     *
+     * @return The annotations of the markers that were resolved
+     */
+    private List<MarkerAnnotation>
+    resolve(
+        List<IMarker>                  markers,
+        @NotNull IDocument             document,
+        @NotNull IAnnotationModel      annotationModel,
+        @NotNull MarkerAnnotationIndex annotationIndex
+    ) throws BadLocationException {
+
+        // Collect the modifications for all markers, relative to the UNMODIFIED document.
+        MultiTextEdit          edit     = new MultiTextEdit();
+        List<MarkerAnnotation> resolved = new ArrayList<MarkerAnnotation>();
+        for (IMarker marker : markers) {
+            try {
+                MarkerAnnotation annotation = this.resolve(marker, document, annotationModel, annotationIndex, edit);
+                if (annotation != null) resolved.add(annotation);
+            } catch (CoreException e) {
+                CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
+            } catch (MalformedTreeException e) {
+                CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
+            } catch (RuntimeException e) {
+
+                // A bug in a quickfix (e.g. for an unexpected message) must not prevent the other markers from being
+                // resolved.
+                CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
+            }
+        }
+
+        // Now modify the document - only once for all markers.
+        AbstractDocumentResolution.apply(edit, document);
+
+        return resolved;
+    }
+
+    /**
+     * Resolves one {@code marker} by adding modifications of the {@code document} to the {@code edit}. If these
+     * modifications conflict with the modifications that are already in the {@code edit}, then the {@code marker}
+     * is left unresolved.
+     *
+     * @return The annotation of the resolved {@code marker}, or {@code null} iff the marker could not be resolved
+     *         (e.g. because the arguments could not be extracted from its message)
+     */
+    private MarkerAnnotation
+    resolve(
+        IMarker                        marker,
+        @NotNull IDocument             document,
+        @NotNull IAnnotationModel      annotationModel,
+        @NotNull MarkerAnnotationIndex annotationIndex,
+        @NotNull MultiTextEdit         edit
+    ) throws CoreException {
+
+        MarkerAnnotation annotation = annotationIndex.get(marker);
+        if (annotation == null || annotation.isMarkedDeleted()) return null;
+
+        String   messageKey;
+        Object[] arguments;
+        {
+            messageKey = marker.getAttribute(CheckstyleMarker.MESSAGE_KEY, null);
+            if (messageKey == null) return null;
+
+            String message;
+            {
+                Object o = marker.getAttribute("message");
+                if (!(o instanceof String)) return null;
+                message = (String) o;
             }
+
+            arguments = MessageArgumentExtractor.get(messageKey).extract(message);
+            if (arguments == null) return null;
+        }
+
+        // Invoke the quickfix.
+        return this.resolve(
+            messageKey,
+            arguments,
+            document,
+            annotationModel.getPosition(annotation).getOffset(),
+            marker.getResource(),
+            edit
+        ) ? annotation : null;
+    }
+
+    /**
+     * Resolves one problem by adding modifications of the {@code document} to the {@code edit}; the {@code document}
+     * itself is not modified. If these modifications conflict with the modifications that are already in the {@code
+     * edit}, then the problem is left unresolved.
+     * <p>
+     * Other than the marker-based methods, this method does not require a workspace, so it can also be used by
+     * headless tools.
+     *
+     * @param resource The underlying resource, or {@code null} if the document is not backed by a workspace resource
+     * @return         Whether the problem was resolved
+     */
+    boolean
+    resolve(
+        String                 messageKey,
+        Object[]               arguments,
+        @NotNull IDocument     document,
+        int                    markerStart,
+        @Nullable IResource    resource,
+        @NotNull MultiTextEdit edit
+    ) throws CoreException {
+
+        MultiTextEdit markerEdit = new MultiTextEdit();
+        AbstractDocumentResolution.PENDING_EDIT.set(markerEdit);
+        try {
+            this.resolve(messageKey, arguments, document, markerStart, resource);
+        } finally {
+            AbstractDocumentResolution.PENDING_EDIT.remove();
+        }
+
+        return AbstractDocumentResolution.addAll(markerEdit, edit);
+    }
+
+    /**
+     * Moves all children of {@code from} to {@code to}. Iff any of them overlaps with an edit that is already in
+     * {@code to}, then {@code to} is left unchanged.
+     *
+     * @return Whether the children could be moved
+     */
+    private static boolean
+    addAll(@NotNull MultiTextEdit from, @NotNull MultiTextEdit to) {
+
+        TextEdit[] children = from.removeChildren();
+
+        int i = 0;
+        try {
+            for (; i < children.length; i++) to.addChild(children[i]);
+        } catch (MalformedTreeException mte) {
+            while (--i >= 0) to.removeChild(children[i]);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies the {@code edit} to the {@code document} in one document rewrite session, so that document listeners
+     * are notified only once.
+     */
+    static void
+    apply(@NotNull TextEdit edit, @NotNull IDocument document) throws BadLocationException {
+
+        if (!edit.hasChildren()) return;
+
+        DocumentRewriteSession session = (
+            document instanceof IDocumentExtension4
+            ? ((IDocumentExtension4) document).startRewriteSession(DocumentRewriteSessionType.UNRESTRICTED)
+            : null
+        );
+        try {
+
+            // Notice: "TextEdit.apply()" executes the child edits in descending offset order, so that the offsets of
+            // the edits that are yet to be executed remain valid.
+            edit.apply(document, TextEdit.NONE);
+        } finally {
+            if (session != null) ((IDocumentExtension4) document).stopRewriteSession(session);
+        }
+    }
+
+    /**
+     * Replaces a region of the {@code document}. Resolutions should use this method instead of {@link
+     * IDocument#replace(int, int, String)}, so that the modifications for many markers can be collected and then be
+     * applied in one go.
+     * <p>
+     * Notice that, while a batch of markers is being resolved, the {@code document} is <em>not</em> modified by this
+     * method; thus all offsets that a resolution computes relate to the document <em>before</em> the modification.
+     */
+    protected void
+    replace(@NotNull IDocument document, int offset, int length, String text) throws BadLocationException {
+
+        MultiTextEdit pendingEdit = AbstractDocumentResolution.PENDING_EDIT.get();
+        if (pendingEdit == null) {
+            document.replace(offset, length, text);
+        } else {
+            pendingEdit.addChild(new ReplaceEdit(offset, length, text));
         }
     }
 
@@ -219,19 +481,11 @@ class AbstractDocumentResolution extends WorkbenchMarkerResolution implements IC
     throws CoreException;
 
     /**
-     * @return The annotation related to the given {@code marker}, or {@code null}
+     * @return The number of annotation model iterations that were avoided because marker annotations were looked up
+     *         through an index rather than through a linear scan of the annotation model
      */
-    private static MarkerAnnotation
-    getMarkerAnnotation(@NotNull IAnnotationModel annotationModel, @NotNull IMarker marker) {
-
-        for (Iterator<Annotation> it = annotationModel.getAnnotationIterator(); it.hasNext();) {
-            Annotation annotation = it.next();
-
-            if (annotation instanceof MarkerAnnotation) {
-                MarkerAnnotation markerAnnotation = (MarkerAnnotation) annotation;
-                if (markerAnnotation.getMarker().equals(marker)) return markerAnnotation;
-            }
-        }
-        return null;
+    public static long
+    getAvoidedAnnotationIterations() {
+        return MarkerAnnotationIndex.getAvoidedIterations();
     }
 }
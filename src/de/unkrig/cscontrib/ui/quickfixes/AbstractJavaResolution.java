@@ -27,8 +27,6 @@
 package de.unkrig.cscontrib.ui.quickfixes;
 
 import org.eclipse.jdt.core.IJavaProject;
-import org.eclipse.jdt.core.JavaCore;
-import org.eclipse.jdt.core.formatter.DefaultCodeFormatterConstants;
 
 import de.unkrig.commons.nullanalysis.NotNullByDefault;
 import de.unkrig.commons.nullanalysis.Nullable;
@@ -39,6 +37,20 @@ import de.unkrig.commons.nullanalysis.Nullable;
 @NotNullByDefault(false) public abstract
 class AbstractJavaResolution extends AbstractDocumentResolution {
 
+    /**
+     * Overrides the formatter settings of the JAVA projects; {@code null} means "use the project settings".
+     */
+    @Nullable private IndentationSettings indentationSettings;
+
+    /**
+     * Makes {@link #space(String, int, IJavaProject)} use the given settings instead of the formatter settings of the
+     * JAVA project. This is useful where there is no workspace, e.g. in headless tools.
+     */
+    void
+    setIndentationSettings(@Nullable IndentationSettings indentationSettings) {
+        this.indentationSettings = indentationSettings;
+    }
+
     /**
      * Computes a string consisting of TABs and/or SPACEs (depending on the {@code javaProject}'s FORMATTER_TAB_CHAR
      * option) such that the {@code prefix} plus the string reaches the {@code correctColumnNumber}.
@@ -46,75 +58,16 @@ class AbstractJavaResolution extends AbstractDocumentResolution {
      * Example (assuming the tab size is 4, FORMATTER_TAB_CHAR is MIXED, and {@code correctColumnNumber} is 9):
      * <p>
      * Prefix "ab" + string "\t\t " reaches column number 9
+     * <p>
+     * The tab size and the tab character are cached per project, so repeated invocations are cheap.
      *
      * @return {@code null} iff the {@code prefix} is "too long".
      */
     @Nullable public String
     space(String prefix, int correctColumnNumber, IJavaProject javaProject) {
+        IndentationSettings is = this.indentationSettings;
+        if (is == null) is = IndentationSettings.get(javaProject);
 
-        if (correctColumnNumber < prefix.length()) return null;
-
-        int tabWidth = AbstractJavaResolution.getCoreOption(
-            javaProject,
-            DefaultCodeFormatterConstants.FORMATTER_TAB_SIZE,
-            4
-        );
-
-        int cn = 0;
-        for (int i = 0; i < prefix.length(); i++) {
-            char c = prefix.charAt(i);
-            if (c == '\t') {
-                cn = cn - (cn % tabWidth) + tabWidth;
-            } else {
-                cn++;
-            }
-            if (cn > correctColumnNumber) return null;
-        }
-
-        String tabChar = AbstractJavaResolution.getCoreOption(
-            javaProject,
-            DefaultCodeFormatterConstants.FORMATTER_TAB_CHAR
-        );
-
-        StringBuilder sb = new StringBuilder();
-        if (JavaCore.SPACE.equals(tabChar)) {
-            for (; cn < correctColumnNumber; cn++) sb.append(' ');
-        } else
-        if (JavaCore.TAB.equals(tabChar)) {
-            for (; cn < correctColumnNumber; cn = cn - (cn % tabWidth) + tabWidth) sb.append('\t');
-        } else
-        if (DefaultCodeFormatterConstants.MIXED.equals(tabChar)) {
-            while (cn < correctColumnNumber) {
-                int newCn = cn - (cn % tabWidth) + tabWidth;
-                if (newCn > correctColumnNumber) break;
-                sb.append('\t');
-                cn = newCn;
-            }
-            for (; cn < correctColumnNumber; cn++) sb.append(' ');
-        } else
-        {
-            for (; cn < correctColumnNumber; cn++) sb.append(' ');
-        }
-
-        return sb.toString();
-    }
-
-    /** @return The (possibly {@code javaProject}-specific) core preference defined under {@code key} */
-    private static String
-    getCoreOption(IJavaProject javaProject, String key) {
-        return javaProject == null ? JavaCore.getOption(key) : javaProject.getOption(key, true);
-    }
-
-    /**
-     * @return The (possibly {@code javaProject}-specific) core preference defined under {@code key}, or {@code
-     *         defaulT} if the value is not a integer
-     */
-    private static int
-    getCoreOption(IJavaProject javaProject, String key, int defaulT) {
-        try {
-            return Integer.parseInt(AbstractJavaResolution.getCoreOption(javaProject, key));
-        } catch (NumberFormatException e) {
-            return defaulT;
-        }
+        return is.space(prefix, correctColumnNumber);
     }
 }
@@ -0,0 +1,390 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.ui.quickfixes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.eclipsecs.core.config.meta.RuleMetadata;
+import net.sf.eclipsecs.ui.quickfixes.AbstractASTResolution;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.text.edits.TextEdit;
+import org.eclipse.ui.texteditor.MarkerAnnotation;
+
+import de.unkrig.commons.nullanalysis.NotNullByDefault;
+import de.unkrig.commons.nullanalysis.Nullable;
+
+/**
+ * Abstract base class for marker resolutions through AST modification, which parses each compilation unit only
+ * <em>once</em>, no matter how many markers are resolved in it.
+ */
+@NotNullByDefault(false) public abstract
+class AbstractMultiMarkerASTResolution extends AbstractASTResolution {
+
+    /**
+     * The JLS level of {@link AST#JLS8}; the levels of later JAVA versions equal the version number, too.
+     */
+    private static final int MIN_AST_LEVEL = 8;
+
+    private final MarkerResolutionSupport support = new MarkerResolutionSupport(
+        new MarkerResolutionSupport.Resolver() {
+
+            @Override public String
+            getLabel() {
+                return AbstractMultiMarkerASTResolution.this.getLabel();
+            }
+
+            @Override public boolean
+            canFixMessageKey(String messageKey) {
+                return AbstractMultiMarkerASTResolution.this.canFixMessageKey(messageKey);
+            }
+
+            @Override public List<MarkerAnnotation>
+            resolve(
+                IFile                 file,
+                List<IMarker>         markers,
+                IDocument             document,
+                IAnnotationModel      annotationModel,
+                MarkerAnnotationIndex annotationIndex
+            ) throws CoreException, BadLocationException {
+                return AbstractMultiMarkerASTResolution.this.resolve(
+                    file,
+                    markers,
+                    document,
+                    annotationModel,
+                    annotationIndex
+                );
+            }
+        }
+    );
+
+    @Override public void
+    setRuleMetaData(RuleMetadata metadata) {
+        super.setRuleMetaData(metadata);
+        this.support.setRuleMetaData(metadata);
+    }
+
+    @Override public void
+    setAutoCommitChanges(boolean autoCommit) {
+        super.setAutoCommitChanges(autoCommit);
+        this.support.setAutoCommitChanges(autoCommit);
+    }
+
+    @Override public boolean
+    canFix(IMarker marker) {
+        return this.support.canFix(marker);
+    }
+
+    /**
+     * @see AbstractDocumentResolution#canFixMessageKey(String)
+     */
+    protected boolean
+    canFixMessageKey(String messageKey) {
+        return true;
+    }
+
+    @Override public IMarker[]
+    findOtherMarkers(IMarker[] markers) {
+        return this.support.findOtherMarkers(markers);
+    }
+
+    /**
+     * @see AbstractDocumentResolution#findOtherMarkers(IMarker[], FindOtherMarkersJob.Listener)
+     */
+    public Job
+    findOtherMarkers(IMarker[] markers, FindOtherMarkersJob.Listener listener) {
+        return this.support.findOtherMarkers(markers, listener);
+    }
+
+    /**
+     * Returns a visitor that corrects <em>all</em> the given markers of one compilation unit in one traversal.
+     * <p>
+     * Notice that the visitor must determine the nodes to correct from their <em>original</em> source ranges; nodes
+     * that replace other nodes have no source range.
+     *
+     * @param lineInfos          The lines of the markers; parallel to {@code markerStartOffsets}
+     * @param markerStartOffsets The start offsets of the markers, in ascending order
+     * @param corrected          Parallel to {@code markerStartOffsets}; the visitor sets the elements of the markers
+     *                           that it corrects
+     */
+    protected abstract ASTVisitor
+    getCorrectingASTVisitor(IRegion[] lineInfos, int[] markerStartOffsets, boolean[] corrected);
+
+    @Override protected final ASTVisitor
+    handleGetCorrectingASTVisitor(IRegion lineInfo, int markerStartOffset) {
+        return this.getCorrectingASTVisitor(
+            new IRegion[] { lineInfo },
+            new int[] { markerStartOffset },
+            new boolean[1]
+        );
+    }
+
+    @Override public void
+    run(IMarker marker) {
+        this.run(new IMarker[] { marker }, new NullProgressMonitor());
+    }
+
+    /**
+     * Groups the {@code markers} by file, and resolves all markers of each file with only one parse of the
+     * compilation unit, one AST rewrite, and only one commit.
+     */
+    @Override public void
+    run(IMarker[] markers, IProgressMonitor monitor) {
+        this.support.run(markers, monitor);
+    }
+
+    /**
+     * Resolves the given {@code markers}, which must all relate to the given {@code file}, with only one parse of the
+     * compilation unit and one AST rewrite.
+     *
+     * @return The annotations of the markers that were actually corrected
+     */
+    private List<MarkerAnnotation>
+    resolve(
+        IFile                 file,
+        List<IMarker>         markers,
+        IDocument             document,
+        IAnnotationModel      annotationModel,
+        MarkerAnnotationIndex annotationIndex
+    ) throws CoreException, BadLocationException {
+
+        // Determine the annotations of the markers, in ascending offset order.
+        final Map<MarkerAnnotation, Integer> offsets     = new HashMap<MarkerAnnotation, Integer>();
+        List<MarkerAnnotation>               annotations = new ArrayList<MarkerAnnotation>();
+        for (IMarker marker : markers) {
+            MarkerAnnotation annotation = annotationIndex.get(marker);
+            if (annotation == null || annotation.isMarkedDeleted()) continue;
+
+            offsets.put(annotation, annotationModel.getPosition(annotation).getOffset());
+            annotations.add(annotation);
+        }
+        if (annotations.isEmpty()) return annotations;
+
+        Collections.sort(annotations, new Comparator<MarkerAnnotation>() {
+
+            @Override public int
+            compare(MarkerAnnotation a1, MarkerAnnotation a2) {
+                return offsets.get(a1).compareTo(offsets.get(a2));
+            }
+        });
+
+        int[]     markerStartOffsets = new int[annotations.size()];
+        IRegion[] lineInfos          = new IRegion[annotations.size()];
+        for (int i = 0; i < markerStartOffsets.length; i++) {
+            markerStartOffsets[i] = offsets.get(annotations.get(i));
+            lineInfos[i]          = document.getLineInformationOfOffset(markerStartOffsets[i]);
+        }
+
+        // Parse the compilation unit - only once for all markers.
+        IJavaProject javaProject = JavaCore.create(file.getProject());
+
+        ASTParser astParser = AbstractMultiMarkerASTResolution.newASTParser(
+            javaProject.getOption(JavaCore.COMPILER_SOURCE, true)
+        );
+        astParser.setKind(ASTParser.K_COMPILATION_UNIT);
+        astParser.setSource(document.get().toCharArray());
+        astParser.setProject(javaProject);
+
+        CompilationUnit ast = (CompilationUnit) astParser.createAST(null);
+        ast.recordModifications();
+
+        boolean[] corrected = new boolean[markerStartOffsets.length];
+        ast.accept(this.getCorrectingASTVisitor(lineInfos, markerStartOffsets, corrected));
+
+        // Rewrite the document - only once for all markers.
+        TextEdit edit = ast.rewrite(document, javaProject.getOptions(true));
+        AbstractDocumentResolution.apply(edit, document);
+
+        // Markers that the visitor did not correct must remain.
+        List<MarkerAnnotation> result = new ArrayList<MarkerAnnotation>();
+        for (int i = 0; i < corrected.length; i++) {
+            if (corrected[i]) result.add(annotations.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param sourceLevel The JAVA source level, as in {@link JavaCore#COMPILER_SOURCE}, e.g. "1.8" or "11"
+     * @return            A parser for the AST level that matches the {@code sourceLevel}, or, iff the JDT core does
+     *                    not support that level, for the highest level that it supports; at least {@link AST#JLS8}
+     */
+    static ASTParser
+    newASTParser(@Nullable String sourceLevel) {
+
+        int level = AbstractMultiMarkerASTResolution.MIN_AST_LEVEL;
+        if (sourceLevel != null) {
+            try {
+                level = Math.max(level, Integer.parseInt(
+                    sourceLevel.startsWith("1.") ? sourceLevel.substring(2) : sourceLevel
+                ));
+            } catch (NumberFormatException nfe) {
+                ;
+            }
+        }
+
+        // Notice: Referring to the "AST.JLS*" constants would produce deprecation warnings, and would not compile
+        // against older JDT cores.
+        for (;; level--) {
+            try {
+                return ASTParser.newParser(level);
+            } catch (IllegalArgumentException iae) {
+                if (level <= AbstractMultiMarkerASTResolution.MIN_AST_LEVEL) throw iae;
+            }
+        }
+    }
+
+    /**
+     * Marks all markers whose start offsets are within the range {@code from} (inclusive) ... {@code to} (exclusive)
+     * as corrected.
+     *
+     * @param sortedOffsets Must be in ascending order
+     * @param corrected     Parallel to {@code sortedOffsets}
+     * @return              Whether any of the {@code sortedOffsets} is within the range
+     */
+    protected static boolean
+    correctAll(int[] sortedOffsets, boolean[] corrected, int from, int to) {
+
+        // Notice: Iff "from" occurs more than once, "binarySearch()" finds ANY of them.
+        int idx = Arrays.binarySearch(sortedOffsets, from);
+        if (idx < 0) {
+            idx = -idx - 1;
+        } else {
+            while (idx > 0 && sortedOffsets[idx - 1] == from) idx--;
+        }
+
+        boolean result = false;
+        for (; idx < sortedOffsets.length && sortedOffsets[idx] < to; idx++) {
+            corrected[idx] = true;
+            result         = true;
+        }
+        return result;
+    }
+
+    /**
+     * @param sortedRegions Must be in ascending offset order, and must not overlap (but may be identical)
+     * @return              Whether any of the {@code sortedRegions} intersects with the range {@code from}
+     *                      (inclusive) ... {@code to} (exclusive)
+     */
+    protected static boolean
+    anyIntersects(IRegion[] sortedRegions, int from, int to) {
+
+        // Find the first region that ends after "from".
+        int lo = 0, hi = sortedRegions.length;
+        while (lo < hi) {
+            int     mid    = (lo + hi) >>> 1;
+            IRegion region = sortedRegions[mid];
+            if (region.getOffset() + region.getLength() > from) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+
+        return lo < sortedRegions.length && sortedRegions[lo].getOffset() < to;
+    }
+
+    /**
+     * Marks all markers whose lines contain the {@code position} as corrected.
+     *
+     * @param sortedRegions Must be in ascending offset order, and must not overlap (but may be identical)
+     * @param corrected     Parallel to {@code sortedRegions}
+     * @return              Whether any of the {@code sortedRegions} contains the {@code position}
+     */
+    protected static boolean
+    correctAll(IRegion[] sortedRegions, boolean[] corrected, int position) {
+
+        // Find the last region that starts at or before the position.
+        int lo = 0, hi = sortedRegions.length - 1, idx = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedRegions[mid].getOffset() <= position) {
+                idx = mid;
+                lo  = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        // Identical regions are adjacent, and all other regions before them end before the position.
+        boolean result = false;
+        for (; idx >= 0 && position < sortedRegions[idx].getOffset() + sortedRegions[idx].getLength(); idx--) {
+            corrected[idx] = true;
+            result         = true;
+        }
+        return result;
+    }
+
+    /**
+     * An {@link ASTVisitor} that does not descend into nodes which do not intersect with any of the given regions
+     * (typically: the lines of the markers). Thus the cost of the traversal depends on the size of the
+     * "interesting" subtrees and on the nesting depth, rather than on the size of the compilation unit.
+     */
+    public static
+    class PruningASTVisitor extends ASTVisitor {
+
+        private final IRegion[] sortedRegions;
+
+        /**
+         * @param sortedRegions Must be in ascending offset order, and must not overlap (but may be identical)
+         */
+        public
+        PruningASTVisitor(IRegion[] sortedRegions) { this.sortedRegions = sortedRegions; }
+
+        @Override public boolean
+        preVisit2(ASTNode node) {
+
+            int start = node.getStartPosition();
+
+            // Nodes that were created by the visitor have no source range.
+            if (start == -1) return true;
+
+            return AbstractMultiMarkerASTResolution.anyIntersects(this.sortedRegions, start, start + node.getLength());
+        }
+    }
+}
@@ -0,0 +1,116 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.ui.quickfixes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import de.unkrig.commons.nullanalysis.NotNullByDefault;
+
+/**
+ * A cancelable background job that finds the markers that a resolution can fix, and reports them incrementally to
+ * a {@link Listener}. This is the asynchronous counterpart of {@link
+ * org.eclipse.ui.views.markers.WorkbenchMarkerResolution#findOtherMarkers(IMarker[])}, which the workbench invokes
+ * synchronously on the UI thread.
+ *
+ * @see AbstractDocumentResolution#findOtherMarkers(IMarker[], Listener)
+ * @see AbstractMultiMarkerASTResolution#findOtherMarkers(IMarker[], Listener)
+ */
+@NotNullByDefault(false) public final
+class FindOtherMarkersJob extends Job {
+
+    /**
+     * The number of markers that are examined between two notifications of the listener.
+     */
+    private static final int CHUNK_SIZE = 500;
+
+    /**
+     * Receives the results of a {@link FindOtherMarkersJob}. The methods are invoked from the job's thread; thus
+     * implementations that update the UI must use {@link org.eclipse.swt.widgets.Display#asyncExec(Runnable)}.
+     */
+    public
+    interface Listener {
+
+        /**
+         * Invoked for each chunk of matching markers, in the order of the markers that were passed to the job.
+         */
+        void markersFound(IMarker[] markers);
+
+        /**
+         * Invoked exactly once, after the last {@link #markersFound(IMarker[])}; also if the job is canceled before it
+         * starts running.
+         *
+         * @param canceled Whether the job was canceled before all markers were examined
+         */
+        void done(boolean canceled);
+    }
+
+    private final MarkerFilter markerFilter;
+    private final IMarker[]    markers;
+    private final Listener     listener;
+
+    FindOtherMarkersJob(String name, MarkerFilter markerFilter, IMarker[] markers, Listener listener) {
+        super(name);
+        this.markerFilter = markerFilter;
+        this.markers      = markers;
+        this.listener     = listener;
+    }
+
+    @Override protected IStatus
+    run(IProgressMonitor monitor) {
+
+        monitor.beginTask(this.getName(), this.markers.length);
+        try {
+            List<IMarker> found = new ArrayList<IMarker>();
+            for (int i = 0; i < this.markers.length; i++) {
+
+                if (this.markerFilter.matches(this.markers[i])) found.add(this.markers[i]);
+
+                if ((i + 1) % FindOtherMarkersJob.CHUNK_SIZE == 0 || i == this.markers.length - 1) {
+
+                    if (!found.isEmpty()) {
+                        this.listener.markersFound(found.toArray(new IMarker[found.size()]));
+                        found.clear();
+                    }
+
+                    monitor.worked(FindOtherMarkersJob.CHUNK_SIZE);
+                    if (monitor.isCanceled()) return Status.CANCEL_STATUS;
+                }
+            }
+
+            return Status.OK_STATUS;
+        } finally {
+            monitor.done();
+        }
+    }
+}
@@ -0,0 +1,655 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.ui.quickfixes;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.formatter.DefaultCodeFormatterConstants;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.text.edits.MultiTextEdit;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.puppycrawl.tools.checkstyle.api.AuditEvent;
+import com.puppycrawl.tools.checkstyle.api.CheckstyleException;
+import com.puppycrawl.tools.checkstyle.api.Configuration;
+
+import de.unkrig.commons.nullanalysis.NotNullByDefault;
+import de.unkrig.commons.nullanalysis.Nullable;
+import de.unkrig.cscontrib.audit.HeadlessAuditor;
+import de.unkrig.cscontrib.checks.AbstractWrapCheck;
+
+/**
+ * A command line tool that applies the cs-contrib quickfixes to JAVA source files, without a running workbench (and
+ * even without an OSGi framework). Usage:
+ * <pre>
+ * java de.unkrig.cscontrib.ui.quickfixes.HeadlessFixer [ <var>option</var> ... ]
+ *     -results <var>checkstyle-result.xml</var>
+ * java de.unkrig.cscontrib.ui.quickfixes.HeadlessFixer [ <var>option</var> ... ]
+ *     -config <var>checkstyle-config.xml</var> <var>file-or-dir</var> ...
+ * </pre>
+ * With "-results", the problems are read from a result file that was previously generated by CheckStyle's XML
+ * logger; with "-config", the files are audited first (see {@link HeadlessAuditor}). Valid options are:
+ * <dl>
+ *   <dt>-encoding <var>charset</var></dt>
+ *   <dd>The encoding of the source files (default: the platform default encoding)</dd>
+ *   <dt>-tab-width <var>n</var></dt>
+ *   <dd>The tab width that CheckStyle used for computing column numbers (default: 8)</dd>
+ *   <dt>-indent-tab-size <var>n</var></dt>
+ *   <dd>The tab size of the indentation that the quickfixes generate (default: 4)</dd>
+ *   <dt>-indent-tab-char space|tab|mixed</dt>
+ *   <dd>The characters that the quickfixes use for indentation (default: space)</dd>
+ *   <dt>-source <var>level</var></dt>
+ *   <dd>The JAVA source level of the files, as in "1.8" or "11" (default: 1.8)</dd>
+ *   <dt>-threads <var>n</var></dt>
+ *   <dd>The number of files that are fixed concurrently (default: the number of processors)</dd>
+ * </dl>
+ * A problem that cannot be fixed (e.g. because the file changed since the audit) is reported, and the other
+ * problems of the file are fixed nonetheless.
+ * <p>
+ * Modified files are replaced atomically: The new content is written to a temporary file in the same directory,
+ * which then replaces the file through a rename. If the file is a symbolic link, then its target is replaced. The
+ * owner's write and execute permissions are copied to the new file; all other attributes (e.g. the owner) are those
+ * of a newly created file.
+ * <p>
+ * The quickfixes are Eclipse marker resolutions, so the classpath must contain not only
+ * <ul>
+ *   <li>the CheckStyle JAR and its dependencies (antlr, antlr4-runtime, commons-beanutils, commons-collections,
+ *   guava, picocli),</li>
+ *   <li>the cs-contrib JAR and commons-nullanalysis,</li>
+ * </ul>
+ * but also the JARs of all bundles that this plugin requires, and their dependencies:
+ * <ul>
+ *   <li>net.sf.eclipsecs.checkstyle, net.sf.eclipsecs.core, net.sf.eclipsecs.ui</li>
+ *   <li>org.eclipse.core.commands, org.eclipse.core.contenttype, org.eclipse.core.filebuffers,
+ *   org.eclipse.core.jobs, org.eclipse.core.resources, org.eclipse.core.runtime</li>
+ *   <li>org.eclipse.equinox.common, org.eclipse.equinox.preferences, org.eclipse.equinox.registry,
+ *   org.eclipse.osgi</li>
+ *   <li>org.eclipse.jdt.core, org.eclipse.jface, org.eclipse.jface.text, org.eclipse.text</li>
+ *   <li>org.eclipse.swt and its platform fragment (e.g. org.eclipse.swt.gtk.linux.x86_64)</li>
+ *   <li>org.eclipse.ui.editors, org.eclipse.ui.ide, org.eclipse.ui.workbench</li>
+ * </ul>
+ * A problem or a file that fails to fix for whatever reason (including a class missing from the classpath) is
+ * reported, and makes the tool exit with status 1.
+ */
+@NotNullByDefault(false) public final
+class HeadlessFixer {
+
+    private static final String MESSAGE_KEY_INNER_ASSIGNMENT = "InnerAssignment.mustParenthesize";
+    private static final String
+    MESSAGE_KEY_ZERO_PARAMETER_SUPERCONSTRUCTOR_INVOCATION = "ZeroParameterSuperconstructorInvocation.invocation";
+
+    /**
+     * A problem reported by CheckStyle.
+     */
+    private static final
+    class Problem {
+
+        /** 1-based. */
+        final int line;
+
+        /** 1-based and tab-expanded; 0 means "unknown". */
+        final int column;
+
+        /** 0-based index of the character within the line; -1 means "unknown". */
+        final int columnCharIndex;
+
+        /** {@code null} means "unknown"; the key is then derived from the message. */
+        @Nullable final String messageKey;
+
+        final String message;
+
+        Problem(int line, int column, int columnCharIndex, @Nullable String messageKey, String message) {
+            this.line            = line;
+            this.column          = column;
+            this.columnCharIndex = columnCharIndex;
+            this.messageKey      = messageKey;
+            this.message         = message;
+        }
+    }
+
+    private final Charset charset;
+    private final int     tabWidth;
+
+    private final Map<String, AbstractDocumentResolution>
+    documentResolutions = new LinkedHashMap<String, AbstractDocumentResolution>();
+
+    private final Map<String, AbstractMultiMarkerASTResolution>
+    astResolutions = new LinkedHashMap<String, AbstractMultiMarkerASTResolution>();
+
+    /** The JAVA source level, e.g. "1.8". */
+    private final String sourceLevel;
+
+    /** The compiler and formatter options for parsing and rewriting the ASTs. */
+    private final Map<String, String> options;
+
+    private final AtomicInteger fixedProblemCount = new AtomicInteger();
+    private final AtomicInteger modifiedFileCount = new AtomicInteger();
+    private final AtomicInteger errorCount        = new AtomicInteger();
+
+    private
+    HeadlessFixer(Charset charset, int tabWidth, int indentTabSize, String indentTabChar, String sourceLevel) {
+
+        this.charset     = charset;
+        this.tabWidth    = tabWidth;
+        this.sourceLevel = sourceLevel;
+
+        IndentationSettings indentationSettings = new IndentationSettings(indentTabSize, indentTabChar);
+
+        WrapAndIndent3 wrapAndIndent3 = new WrapAndIndent3();
+        wrapAndIndent3.setIndentationSettings(indentationSettings);
+
+        this.documentResolutions.put(AbstractWrapCheck.MESSAGE_KEY_MUST_WRAP,    new WrapAndIndent1());
+        this.documentResolutions.put(AbstractWrapCheck.MESSAGE_KEY_MUST_JOIN,    new WrapAndIndent2());
+        this.documentResolutions.put(AbstractWrapCheck.MESSAGE_KEY_WRONG_COLUMN, wrapAndIndent3);
+
+        this.astResolutions.put(HeadlessFixer.MESSAGE_KEY_INNER_ASSIGNMENT, new InnerAssignment());
+        this.astResolutions.put(
+            HeadlessFixer.MESSAGE_KEY_ZERO_PARAMETER_SUPERCONSTRUCTOR_INVOCATION,
+            new ZeroParameterSuperconstructorInvocation()
+        );
+
+        @SuppressWarnings("unchecked") Map<String, String>
+        options = new LinkedHashMap<String, String>(DefaultCodeFormatterConstants.getEclipseDefaultSettings());
+        JavaCore.setComplianceOptions(sourceLevel, options);
+        options.put(DefaultCodeFormatterConstants.FORMATTER_TAB_CHAR, indentTabChar);
+        options.put(DefaultCodeFormatterConstants.FORMATTER_TAB_SIZE, String.valueOf(indentTabSize));
+        options.put(DefaultCodeFormatterConstants.FORMATTER_INDENTATION_SIZE, String.valueOf(indentTabSize));
+        this.options = options;
+    }
+
+    /**
+     * See {@link HeadlessFixer}.
+     */
+    public static void
+    main(String[] args) throws Exception {
+
+        Charset charset       = Charset.defaultCharset();
+        int     tabWidth      = -1;
+        int     indentTabSize = 4;
+        String  indentTabChar = JavaCore.SPACE;
+        String  sourceLevel   = JavaCore.VERSION_1_8;
+        int     threadCount   = Runtime.getRuntime().availableProcessors();
+        File    resultsFile   = null;
+        File    configFile    = null;
+
+        int i = 0;
+        try {
+            for (; i < args.length && args[i].startsWith("-"); i++) {
+                String arg = args[i];
+                if ("-encoding".equals(arg)) {
+                    charset = Charset.forName(args[++i]);
+                } else
+                if ("-tab-width".equals(arg)) {
+                    tabWidth = Integer.parseInt(args[++i]);
+                } else
+                if ("-indent-tab-size".equals(arg)) {
+                    indentTabSize = Integer.parseInt(args[++i]);
+                } else
+                if ("-indent-tab-char".equals(arg)) {
+                    indentTabChar = args[++i];
+                } else
+                if ("-source".equals(arg)) {
+                    sourceLevel = args[++i];
+                } else
+                if ("-threads".equals(arg)) {
+                    threadCount = Integer.parseInt(args[++i]);
+                } else
+                if ("-results".equals(arg)) {
+                    resultsFile = new File(args[++i]);
+                } else
+                if ("-config".equals(arg)) {
+                    configFile = new File(args[++i]);
+                } else
+                {
+                    HeadlessFixer.usage("Invalid option \"" + arg + "\"");
+                    return;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException aioobe) {
+            HeadlessFixer.usage("Argument missing after \"" + args[args.length - 1] + "\"");
+            return;
+        }
+
+        Map<File, List<Problem>> problems;
+        if (resultsFile != null && configFile == null && i == args.length) {
+            problems = HeadlessFixer.readResults(resultsFile);
+        } else
+        if (configFile != null && resultsFile == null && i < args.length) {
+            List<File> files = new ArrayList<File>();
+            for (; i < args.length; i++) HeadlessAuditor.findJavaFiles(new File(args[i]), files);
+
+            Configuration configuration = HeadlessAuditor.loadConfiguration(configFile);
+
+            // Unless configured explicitly, use the same tab width as the checker.
+            if (tabWidth == -1 && Arrays.asList(configuration.getAttributeNames()).contains("tabWidth")) {
+                tabWidth = Integer.parseInt(configuration.getAttribute("tabWidth"));
+            }
+
+            problems = HeadlessFixer.audit(configuration, files, threadCount);
+        } else
+        {
+            HeadlessFixer.usage("Exactly one of \"-results\" and \"-config\" must be given");
+            return;
+        }
+
+        HeadlessFixer fixer = new HeadlessFixer(
+            charset,
+            tabWidth == -1 ? 8 : tabWidth,
+            indentTabSize,
+            indentTabChar,
+            sourceLevel
+        );
+        fixer.fix(problems, threadCount);
+
+        System.err.println(
+            "Fixed "
+            + fixer.fixedProblemCount
+            + " problem(s) in "
+            + fixer.modifiedFileCount
+            + " file(s), "
+            + fixer.errorCount
+            + " error(s)"
+        );
+        if (fixer.errorCount.get() > 0) System.exit(1);
+    }
+
+    private static void
+    usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage:");
+        System.err.println("  HeadlessFixer [ <option> ... ] -results <checkstyle-result.xml>");
+        System.err.println("  HeadlessFixer [ <option> ... ] -config <checkstyle-config.xml> <file-or-dir> ...");
+        System.err.println("Options:");
+        System.err.println("  -encoding <charset>");
+        System.err.println("  -tab-width <n>");
+        System.err.println("  -indent-tab-size <n>");
+        System.err.println("  -indent-tab-char space|tab|mixed");
+        System.err.println("  -source <level>");
+        System.err.println("  -threads <n>");
+        System.exit(1);
+    }
+
+    /**
+     * Reads the problems from a result file that was generated by CheckStyle's XML logger.
+     */
+    private static Map<File, List<Problem>>
+    readResults(File resultsFile) throws IOException, SAXException, ParserConfigurationException {
+
+        final Map<File, List<Problem>> result = new LinkedHashMap<File, List<Problem>>();
+
+        SAXParserFactory.newInstance().newSAXParser().parse(resultsFile, new DefaultHandler() {
+
+            @Nullable private List<Problem> problems;
+
+            @Override public void
+            startElement(String uri, String localName, String qName, Attributes attributes) {
+
+                if ("file".equals(qName)) {
+                    File file = new File(attributes.getValue("name"));
+
+                    List<Problem> problems = result.get(file);
+                    if (problems == null) result.put(file, (problems = new ArrayList<Problem>()));
+                    this.problems = problems;
+                } else
+                if ("error".equals(qName) && this.problems != null) {
+                    String line    = attributes.getValue("line");
+                    String column  = attributes.getValue("column");
+                    String message = attributes.getValue("message");
+                    if (line == null || message == null) return;
+
+                    this.problems.add(new Problem(
+                        Integer.parseInt(line),
+                        column == null ? 0 : Integer.parseInt(column),
+                        -1,
+                        null,
+                        message
+                    ));
+                }
+            }
+
+            @Override public void
+            endElement(String uri, String localName, String qName) {
+                if ("file".equals(qName)) this.problems = null;
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * Audits the {@code files} and returns the problems that CheckStyle reports.
+     */
+    private static Map<File, List<Problem>>
+    audit(Configuration configuration, List<File> files, int threadCount)
+    throws CheckstyleException, InterruptedException {
+
+        Map<File, List<AuditEvent>> events = new HeadlessAuditor(configuration, threadCount).audit(files);
+
+        Map<File, List<Problem>> result = new LinkedHashMap<File, List<Problem>>();
+        for (Entry<File, List<AuditEvent>> e : events.entrySet()) {
+
+            List<Problem> problems = new ArrayList<Problem>();
+            for (AuditEvent event : e.getValue()) {
+                problems.add(new Problem(
+                    event.getLine(),
+                    event.getColumn(),
+                    event.getLocalizedMessage().getColumnCharIndex(),
+                    event.getLocalizedMessage().getKey(),
+                    event.getMessage()
+                ));
+            }
+            result.put(e.getKey(), problems);
+        }
+
+        return result;
+    }
+
+    /**
+     * Fixes the {@code problems}, using up to {@code threadCount} threads.
+     */
+    private void
+    fix(Map<File, List<Problem>> problems, int threadCount) throws InterruptedException {
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threadCount));
+        try {
+            for (Entry<File, List<Problem>> e : problems.entrySet()) {
+                final File          file         = e.getKey();
+                final List<Problem> fileProblems = e.getValue();
+                if (fileProblems.isEmpty()) continue;
+
+                executor.execute(new Runnable() {
+
+                    @Override public void
+                    run() {
+                        try {
+                            HeadlessFixer.this.fix(file, fileProblems);
+                        } catch (Throwable t) { // Notably a "NoClassDefFoundError" when a JAR is missing.
+                            HeadlessFixer.this.errorCount.incrementAndGet();
+                            System.err.println(file + ": " + t);
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fixes the {@code problems} of one {@code file}, and rewrites the {@code file} iff its content changed. Problems
+     * that cannot be fixed are reported and counted as errors.
+     */
+    private void
+    fix(File file, List<Problem> problems) throws IOException {
+
+        String    original = this.read(file);
+        IDocument document = new Document(original);
+
+        // Collect the modifications of the document-based resolutions, and remember the AST-based problems through
+        // positions, which are updated when the document is modified.
+        MultiTextEdit                                         edit         = new MultiTextEdit();
+        Map<AbstractMultiMarkerASTResolution, List<Position>> astPositions = (
+            new LinkedHashMap<AbstractMultiMarkerASTResolution, List<Position>>()
+        );
+        int fixed = 0;
+        for (Problem problem : problems) {
+            try {
+                int offset = this.offset(document, problem);
+                if (offset == -1) continue;
+
+                String messageKey = problem.messageKey != null ? problem.messageKey : this.messageKey(problem.message);
+                if (messageKey == null) continue;
+
+                AbstractDocumentResolution documentResolution = this.documentResolutions.get(messageKey);
+                if (documentResolution != null) {
+                    Object[] arguments = MessageArgumentExtractor.get(messageKey).extract(problem.message);
+                    if (arguments == null) continue;
+
+                    if (documentResolution.resolve(messageKey, arguments, document, offset, null, edit)) fixed++;
+                    continue;
+                }
+
+                AbstractMultiMarkerASTResolution astResolution = this.astResolutions.get(messageKey);
+                if (astResolution != null) {
+                    List<Position> positions = astPositions.get(astResolution);
+                    if (positions == null) astPositions.put(astResolution, (positions = new ArrayList<Position>()));
+
+                    Position position = new Position(offset);
+                    document.addPosition(position);
+                    positions.add(position);
+                }
+            } catch (Exception e) {
+                this.errorCount.incrementAndGet();
+                System.err.println(file + ":" + problem.line + ": " + e);
+            }
+        }
+        try {
+            AbstractDocumentResolution.apply(edit, document);
+        } catch (BadLocationException ble) {
+            throw new IOException(ble.toString());
+        }
+
+        // Parse the compilation unit only once for all problems of an AST-based resolution. Iff that fails, then
+        // retry the problems one by one, so that only the failing problems remain unfixed.
+        for (Entry<AbstractMultiMarkerASTResolution, List<Position>> e : astPositions.entrySet()) {
+            AbstractMultiMarkerASTResolution astResolution = e.getKey();
+            List<Position>                   positions     = e.getValue();
+
+            try {
+                fixed += this.fix(document, astResolution, positions);
+            } catch (Exception e1) {
+                for (Position position : positions) {
+                    try {
+                        fixed += this.fix(document, astResolution, Collections.singletonList(position));
+                    } catch (Exception e2) {
+                        this.errorCount.incrementAndGet();
+                        System.err.println(file + ": Offset " + position.getOffset() + ": " + e2);
+                    }
+                }
+            }
+        }
+
+        String modified = document.get();
+        if (modified.equals(original)) return;
+
+        this.write(file, modified);
+        this.fixedProblemCount.addAndGet(fixed);
+        this.modifiedFileCount.incrementAndGet();
+    }
+
+    /**
+     * Fixes the problems at the {@code positions} with one parse of the {@code document} and one AST rewrite. Iff
+     * that fails, then the {@code document} is left unchanged.
+     *
+     * @return The number of problems that were actually fixed
+     */
+    private int
+    fix(IDocument document, AbstractMultiMarkerASTResolution astResolution, List<Position> positions)
+    throws BadLocationException, MalformedTreeException {
+
+        int[] markerStartOffsets = new int[positions.size()];
+        for (int i = 0; i < markerStartOffsets.length; i++) {
+            markerStartOffsets[i] = positions.get(i).getOffset();
+        }
+        Arrays.sort(markerStartOffsets);
+
+        IRegion[] lineInfos = new IRegion[markerStartOffsets.length];
+        for (int i = 0; i < markerStartOffsets.length; i++) {
+            lineInfos[i] = document.getLineInformationOfOffset(markerStartOffsets[i]);
+        }
+
+        ASTParser astParser = AbstractMultiMarkerASTResolution.newASTParser(this.sourceLevel);
+        astParser.setKind(ASTParser.K_COMPILATION_UNIT);
+        astParser.setSource(document.get().toCharArray());
+        astParser.setCompilerOptions(this.options);
+
+        CompilationUnit ast = (CompilationUnit) astParser.createAST(null);
+        ast.recordModifications();
+
+        boolean[] corrected = new boolean[markerStartOffsets.length];
+        ast.accept(astResolution.getCorrectingASTVisitor(lineInfos, markerStartOffsets, corrected));
+
+        AbstractDocumentResolution.apply(ast.rewrite(document, this.options), document);
+
+        int result = 0;
+        for (boolean c : corrected) {
+            if (c) result++;
+        }
+        return result;
+    }
+
+    /**
+     * @return The key of the message that matches the {@code message}, or {@code null}
+     */
+    @Nullable private String
+    messageKey(String message) {
+
+        for (String messageKey : this.documentResolutions.keySet()) {
+            if (MessageArgumentExtractor.get(messageKey).extract(message) != null) return messageKey;
+        }
+        for (String messageKey : this.astResolutions.keySet()) {
+            if (MessageArgumentExtractor.get(messageKey).extract(message) != null) return messageKey;
+        }
+        return null;
+    }
+
+    /**
+     * @return The offset of the {@code problem} within the {@code document}, or -1 iff the problem is not within the
+     *         document
+     */
+    private int
+    offset(IDocument document, Problem problem) throws BadLocationException {
+
+        if (problem.line < 1 || problem.line > document.getNumberOfLines()) return -1;
+
+        IRegion lineInfo = document.getLineInformation(problem.line - 1);
+
+        if (problem.columnCharIndex >= 0) {
+            return lineInfo.getOffset() + Math.min(problem.columnCharIndex, lineInfo.getLength());
+        }
+
+        if (problem.column <= 0) return lineInfo.getOffset();
+
+        // Convert the tab-expanded column number into a character index.
+        String line = document.get(lineInfo.getOffset(), lineInfo.getLength());
+        int    cn   = 0, idx = 0;
+        for (; idx < line.length() && cn < problem.column - 1; idx++) {
+            cn = line.charAt(idx) == '\t' ? cn - cn % this.tabWidth + this.tabWidth : cn + 1;
+        }
+
+        return lineInfo.getOffset() + idx;
+    }
+
+    /**
+     * Reads the content of the {@code file}; fails iff the content is not valid in the configured charset.
+     */
+    private String
+    read(File file) throws IOException {
+
+        FileInputStream is = new FileInputStream(file);
+        try {
+            FileChannel channel = is.getChannel();
+
+            ByteBuffer bb = ByteBuffer.allocate((int) channel.size());
+            while (bb.hasRemaining() && channel.read(bb) != -1);
+            bb.flip();
+
+            return this.charset.newDecoder().decode(bb).toString();
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Replaces the {@code file} (or, iff it is a symbolic link, its target) atomically with a temporary file in the
+     * same directory, so that the file is never left half-written. JAVA 6 offers no way to copy the owner or the
+     * complete permissions; thus only the owner's write and execute permissions are copied.
+     */
+    private void
+    write(File file, String content) throws IOException {
+
+        File target = file.getCanonicalFile();
+
+        File tmp = File.createTempFile(target.getName() + ".", ".tmp", target.getParentFile());
+        try {
+            FileOutputStream os = new FileOutputStream(tmp);
+            try {
+                FileChannel channel = os.getChannel();
+
+                ByteBuffer bb = this.charset.newEncoder().encode(CharBuffer.wrap(content));
+                while (bb.hasRemaining()) channel.write(bb);
+
+                channel.force(true);
+            } finally {
+                os.close();
+            }
+
+            tmp.setWritable(target.canWrite());
+            tmp.setExecutable(target.canExecute());
+
+            // On POSIX systems, "renameTo()" replaces the target atomically; on others, the target must be deleted
+            // first.
+            if (!tmp.renameTo(target) && !(target.delete() && tmp.renameTo(target))) {
+                throw new IOException("Could not replace \"" + target + "\"");
+            }
+        } finally {
+            if (tmp.exists()) tmp.delete();
+        }
+    }
+}
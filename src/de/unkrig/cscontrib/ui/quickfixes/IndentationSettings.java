@@ -0,0 +1,298 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.ui.quickfixes;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.ProjectScope;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.IPreferenceChangeListener;
+import org.eclipse.core.runtime.preferences.IEclipsePreferences.PreferenceChangeEvent;
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.eclipse.jdt.core.IJavaProject;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.formatter.DefaultCodeFormatterConstants;
+
+import de.unkrig.commons.nullanalysis.Nullable;
+
+/**
+ * The formatter settings that determine how indentation is computed, i.e. the tab size and the tab character.
+ * <p>
+ * The settings of the workspace and of each JAVA project are cached, so that the (scoped) preferences are looked up
+ * only once, and not once per marker. The caches are invalidated through preference change listeners.
+ */
+final
+class IndentationSettings {
+
+    /**
+     * Indentations up to this column are cached by each {@link IndentationSettings} object.
+     */
+    private static final int MAX_CACHED_INDENTATION = 200;
+
+    @Nullable private static volatile IndentationSettings workspaceSettings;
+
+    private static final ConcurrentMap<IProject, IndentationSettings>
+    PROJECT_SETTINGS = new ConcurrentHashMap<IProject, IndentationSettings>();
+
+    private static final AtomicBoolean OBSERVING_WORKSPACE = new AtomicBoolean();
+    private static final Set<IProject>
+    OBSERVED_PROJECTS = Collections.newSetFromMap(new ConcurrentHashMap<IProject, Boolean>());
+
+    private final int    tabWidth;
+    private final String tabChar;
+
+    /**
+     * The indentation strings for column 0, 1, 2, ..., computed lazily. (Concurrent updates may get lost, which is
+     * harmless.)
+     */
+    private volatile String[] indentations = new String[0];
+
+    /**
+     * @param tabChar One of {@link JavaCore#SPACE}, {@link JavaCore#TAB} and {@link
+     *                DefaultCodeFormatterConstants#MIXED}; all other values are treated like {@link JavaCore#SPACE}
+     */
+    IndentationSettings(int tabWidth, String tabChar) {
+        this.tabWidth = tabWidth;
+        this.tabChar  = tabChar;
+    }
+
+    /**
+     * @param javaProject {@code null} means "the workspace settings"
+     * @return            The (cached) indentation settings of the {@code javaProject}
+     */
+    static IndentationSettings
+    get(@Nullable IJavaProject javaProject) {
+
+        IndentationSettings.observeWorkspace();
+
+        if (javaProject == null) {
+            IndentationSettings result = IndentationSettings.workspaceSettings;
+            if (result == null) {
+                IndentationSettings.workspaceSettings = (result = IndentationSettings.load(null));
+            }
+            return result;
+        }
+
+        IProject project = javaProject.getProject();
+
+        IndentationSettings result = IndentationSettings.PROJECT_SETTINGS.get(project);
+        if (result != null) return result;
+
+        IndentationSettings.observeProject(project);
+
+        result = IndentationSettings.load(javaProject);
+        IndentationSettings.PROJECT_SETTINGS.put(project, result);
+        return result;
+    }
+
+    /**
+     * Computes a string consisting of TABs and/or SPACEs such that the {@code prefix} plus the string reaches the
+     * {@code correctColumnNumber}.
+     *
+     * @return {@code null} iff the {@code prefix} is "too long"
+     * @see    AbstractJavaResolution#space(String, int, IJavaProject)
+     */
+    @Nullable String
+    space(String prefix, int correctColumnNumber) {
+
+        if (correctColumnNumber < prefix.length()) return null;
+
+        int cn = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '\t') {
+                cn = cn - (cn % this.tabWidth) + this.tabWidth;
+            } else {
+                cn++;
+            }
+            if (cn > correctColumnNumber) return null;
+        }
+
+        return cn == 0 ? this.indentation(correctColumnNumber) : this.space(cn, correctColumnNumber);
+    }
+
+    /**
+     * @return A string consisting of TABs and/or SPACEs that reaches the {@code columnNumber} from column 0
+     */
+    String
+    indentation(int columnNumber) {
+
+        String[] is = this.indentations;
+        if (columnNumber < is.length) {
+            String result = is[columnNumber];
+            if (result != null) return result;
+        }
+
+        String result = this.space(0, columnNumber);
+
+        if (columnNumber < IndentationSettings.MAX_CACHED_INDENTATION) {
+            if (columnNumber >= is.length) {
+                String[] tmp = new String[columnNumber + 1];
+                System.arraycopy(is, 0, tmp, 0, is.length);
+                is = tmp;
+            } else {
+                is = is.clone();
+            }
+            is[columnNumber] = result;
+            this.indentations = is;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return A string consisting of TABs and/or SPACEs that reaches the {@code correctColumnNumber} from column
+     *         {@code cn}
+     */
+    private String
+    space(int cn, int correctColumnNumber) {
+
+        StringBuilder sb = new StringBuilder();
+        if (JavaCore.TAB.equals(this.tabChar)) {
+            for (; cn < correctColumnNumber; cn = cn - (cn % this.tabWidth) + this.tabWidth) sb.append('\t');
+        } else
+        if (DefaultCodeFormatterConstants.MIXED.equals(this.tabChar)) {
+            while (cn < correctColumnNumber) {
+                int newCn = cn - (cn % this.tabWidth) + this.tabWidth;
+                if (newCn > correctColumnNumber) break;
+                sb.append('\t');
+                cn = newCn;
+            }
+            for (; cn < correctColumnNumber; cn++) sb.append(' ');
+        } else
+        {
+            for (; cn < correctColumnNumber; cn++) sb.append(' ');
+        }
+
+        return sb.toString();
+    }
+
+    private static IndentationSettings
+    load(@Nullable IJavaProject javaProject) {
+        return new IndentationSettings(
+            IndentationSettings.getCoreOption(javaProject, DefaultCodeFormatterConstants.FORMATTER_TAB_SIZE, 4),
+            IndentationSettings.getCoreOption(javaProject, DefaultCodeFormatterConstants.FORMATTER_TAB_CHAR)
+        );
+    }
+
+    /**
+     * Arranges that changes of the workspace's JDT core preferences invalidate ALL cached settings (because the
+     * projects inherit them), and that closing or deleting a project invalidates its cached settings (because a
+     * re-created or re-imported project with the same name gets a new preference node, which must be observed anew).
+     */
+    private static void
+    observeWorkspace() {
+
+        if (!IndentationSettings.OBSERVING_WORKSPACE.compareAndSet(false, true)) return;
+
+        InstanceScope.INSTANCE.getNode(JavaCore.PLUGIN_ID).addPreferenceChangeListener(
+            new IPreferenceChangeListener() {
+
+                @Override public void
+                preferenceChange(PreferenceChangeEvent event) {
+                    if (IndentationSettings.isRelevant(event.getKey())) {
+                        IndentationSettings.workspaceSettings = null;
+                        IndentationSettings.PROJECT_SETTINGS.clear();
+                    }
+                }
+            }
+        );
+
+        ResourcesPlugin.getWorkspace().addResourceChangeListener(
+            new IResourceChangeListener() {
+
+                @Override public void
+                resourceChanged(IResourceChangeEvent event) {
+                    IResource resource = event.getResource();
+                    if (resource instanceof IProject) {
+                        IndentationSettings.OBSERVED_PROJECTS.remove(resource);
+                        IndentationSettings.PROJECT_SETTINGS.remove(resource);
+                    }
+                }
+            },
+            IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE
+        );
+    }
+
+    /**
+     * Arranges that changes of the {@code project}'s JDT core preferences invalidate its cached settings.
+     */
+    private static void
+    observeProject(final IProject project) {
+
+        if (!IndentationSettings.OBSERVED_PROJECTS.add(project)) return;
+
+        IEclipsePreferences node = new ProjectScope(project).getNode(JavaCore.PLUGIN_ID);
+        if (node == null) return;
+
+        node.addPreferenceChangeListener(new IPreferenceChangeListener() {
+
+            @Override public void
+            preferenceChange(PreferenceChangeEvent event) {
+                if (IndentationSettings.isRelevant(event.getKey())) {
+                    IndentationSettings.PROJECT_SETTINGS.remove(project);
+                }
+            }
+        });
+    }
+
+    private static boolean
+    isRelevant(String preferenceKey) {
+        return (
+            DefaultCodeFormatterConstants.FORMATTER_TAB_SIZE.equals(preferenceKey)
+            || DefaultCodeFormatterConstants.FORMATTER_TAB_CHAR.equals(preferenceKey)
+        );
+    }
+
+    /** @return The (possibly {@code javaProject}-specific) core preference defined under {@code key} */
+    private static String
+    getCoreOption(@Nullable IJavaProject javaProject, String key) {
+        return javaProject == null ? JavaCore.getOption(key) : javaProject.getOption(key, true);
+    }
+
+    /**
+     * @return The (possibly {@code javaProject}-specific) core preference defined under {@code key}, or {@code
+     *         defaulT} if the value is not a integer
+     */
+    private static int
+    getCoreOption(@Nullable IJavaProject javaProject, String key, int defaulT) {
+        try {
+            return Integer.parseInt(IndentationSettings.getCoreOption(javaProject, key));
+        } catch (NumberFormatException e) {
+            return defaulT;
+        }
+    }
+}
@@ -26,7 +26,8 @@
 
 package de.unkrig.cscontrib.ui.quickfixes;
 
-import net.sf.eclipsecs.ui.quickfixes.AbstractASTResolution;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
@@ -46,25 +47,38 @@ import de.unkrig.cscontrib.ui.PluginImages;
  * @cs-label Parenthesize assignment
  */
 @NotNullByDefault(false) public
-class InnerAssignment extends AbstractASTResolution {
+class InnerAssignment extends AbstractMultiMarkerASTResolution {
 
     /**
      * {@inheritDoc}
      */
     @Override protected ASTVisitor
-    handleGetCorrectingASTVisitor(final IRegion lineInfo, final int markerStartOffset) {
+    getCorrectingASTVisitor(final IRegion[] lineInfos, final int[] markerStartOffsets, final boolean[] corrected) {
 
-        return new ASTVisitor() {
+        return new PruningASTVisitor(lineInfos) {
 
-            @Override public void
-            endVisit(Assignment node) {
+            /**
+             * The assignments to parenthesize. These are determined BEFORE any assignment is replaced, because
+             * replacing an inner assignment (e.g. "b = c" in "foo(a = b = c)") destroys the source range of the RHS
+             * of the outer assignment.
+             */
+            private final Set<Assignment> assignments = new HashSet<Assignment>();
+
+            @Override public boolean
+            visit(Assignment node) {
                 int lhsEnd   = node.getLeftHandSide().getStartPosition() + node.getLeftHandSide().getLength();
                 int rhsStart = node.getRightHandSide().getStartPosition();
-                if (markerStartOffset >= lhsEnd && markerStartOffset < rhsStart) {
+                if (AbstractMultiMarkerASTResolution.correctAll(markerStartOffsets, corrected, lhsEnd, rhsStart)) {
 
                     // Marker begins BETWEEN the LHS and the RHS... THIS is the assignment to parenthesize!
-                    InnerAssignment.this.replace(node, this.parenthesize(node));
+                    this.assignments.add(node);
                 }
+                return true;
+            }
+
+            @Override public void
+            endVisit(Assignment node) {
+                if (this.assignments.remove(node)) InnerAssignment.this.replace(node, this.parenthesize(node));
             }
 
 //            /**
@@ -0,0 +1,152 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.ui.quickfixes;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.AnnotationModelEvent;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.jface.text.source.IAnnotationModelListener;
+import org.eclipse.jface.text.source.IAnnotationModelListenerExtension;
+import org.eclipse.ui.texteditor.MarkerAnnotation;
+
+import de.unkrig.commons.nullanalysis.Nullable;
+
+/**
+ * Maps {@link IMarker}s to the {@link MarkerAnnotation}s of an {@link IAnnotationModel}, so that looking up the
+ * annotations of N markers costs O(N) instead of O(N * M) (where M is the number of annotations in the model).
+ * <p>
+ * The index is built on the first lookup, and is kept up-to-date by listening to the annotation model. It must be
+ * {@link #dispose() disposed} when it is no longer needed.
+ */
+final
+class MarkerAnnotationIndex implements IAnnotationModelListener, IAnnotationModelListenerExtension {
+
+    /**
+     * The number of iterations over annotation models (i.e. linear scans) that were avoided by all indexes so far.
+     */
+    private static final AtomicLong AVOIDED_ITERATIONS = new AtomicLong();
+
+    private final IAnnotationModel               annotationModel;
+    private final Map<IMarker, MarkerAnnotation> index = new HashMap<IMarker, MarkerAnnotation>();
+
+    /** Whether the {@link #index} must be rebuilt before the next lookup. */
+    private boolean stale = true;
+
+    MarkerAnnotationIndex(IAnnotationModel annotationModel) {
+        this.annotationModel = annotationModel;
+        annotationModel.addAnnotationModelListener(this);
+    }
+
+    /**
+     * @return The annotation related to the given {@code marker}, or {@code null}
+     */
+    @Nullable synchronized MarkerAnnotation
+    get(IMarker marker) {
+
+        // Rebuilding the index costs one iteration over the annotation model, just like a linear scan.
+        if (this.stale) {
+            this.rebuild();
+        } else {
+            MarkerAnnotationIndex.AVOIDED_ITERATIONS.incrementAndGet();
+        }
+
+        return this.index.get(marker);
+    }
+
+    /**
+     * Stops listening to the annotation model.
+     */
+    void
+    dispose() {
+        this.annotationModel.removeAnnotationModelListener(this);
+    }
+
+    /**
+     * @return The number of iterations over annotation models that were avoided by all indexes so far
+     */
+    static long
+    getAvoidedIterations() {
+        return MarkerAnnotationIndex.AVOIDED_ITERATIONS.get();
+    }
+
+    @Override public synchronized void
+    modelChanged(IAnnotationModel model) {
+        this.stale = true;
+    }
+
+    @Override public synchronized void
+    modelChanged(AnnotationModelEvent event) {
+
+        if (this.stale) return;
+
+        if (event.isWorldChange()) {
+            this.stale = true;
+            return;
+        }
+
+        for (Annotation a : event.getRemovedAnnotations()) {
+
+            // Another annotation of the same marker possibly remains in the model, so the index must be rebuilt.
+            if (a instanceof MarkerAnnotation && this.index.get(((MarkerAnnotation) a).getMarker()) == a) {
+                this.stale = true;
+                return;
+            }
+        }
+
+        for (Annotation a : event.getAddedAnnotations()) {
+            if (a instanceof MarkerAnnotation) this.add((MarkerAnnotation) a);
+        }
+    }
+
+    private void
+    rebuild() {
+
+        this.index.clear();
+
+        for (Iterator<Annotation> it = this.annotationModel.getAnnotationIterator(); it.hasNext();) {
+            Annotation annotation = it.next();
+
+            if (annotation instanceof MarkerAnnotation) this.add((MarkerAnnotation) annotation);
+        }
+
+        this.stale = false;
+    }
+
+    private void
+    add(MarkerAnnotation markerAnnotation) {
+
+        // Like the linear scan did, prefer the FIRST annotation of a marker.
+        IMarker marker = markerAnnotation.getMarker();
+        if (!this.index.containsKey(marker)) this.index.put(marker, markerAnnotation);
+    }
+}
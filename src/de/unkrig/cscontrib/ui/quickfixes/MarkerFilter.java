@@ -0,0 +1,135 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.ui.quickfixes;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sf.eclipsecs.core.builder.CheckstyleMarker;
+import net.sf.eclipsecs.core.config.meta.RuleMetadata;
+
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.runtime.CoreException;
+
+import de.unkrig.commons.nullanalysis.Nullable;
+
+/**
+ * Decides which markers a resolution can fix. The module names of the resolution's rule are precomputed into a set,
+ * the results of {@link #canFixMessageKey(String)} are memoized, and the marker attributes are fetched with only one
+ * call, so that filtering large numbers of markers is cheap.
+ */
+abstract
+class MarkerFilter {
+
+    private static final String[]
+    ATTRIBUTE_NAMES = { CheckstyleMarker.MODULE_NAME, CheckstyleMarker.MESSAGE_KEY };
+
+    /**
+     * The internal name and the alternative names of the rule; {@code null} means "any module" (only ECLIPSE-CS >
+     * 5.6.0 sets the metadata).
+     */
+    @Nullable private volatile Set<String> moduleNames;
+
+    private final ConcurrentMap<String, Boolean> messageKeyMatches = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Must be a pure function, because its results are memoized.
+     *
+     * @see AbstractDocumentResolution#canFixMessageKey(String)
+     */
+    protected abstract boolean
+    canFixMessageKey(@Nullable String messageKey);
+
+    /**
+     * Restricts this filter to the modules of the rule described by the {@code metadata}.
+     */
+    void
+    setRuleMetaData(@Nullable RuleMetadata metadata) {
+
+        if (metadata == null) {
+            this.moduleNames = null;
+            return;
+        }
+
+        Set<String> moduleNames = new HashSet<String>(metadata.getAlternativeNames());
+        moduleNames.add(metadata.getInternalName());
+        this.moduleNames = moduleNames;
+    }
+
+    /**
+     * @return Whether the {@code marker} is a CheckStyle marker that the resolution can fix; {@code false} iff the
+     *         marker's attributes cannot be read, e.g. because the marker no longer exists
+     */
+    boolean
+    matches(IMarker marker) {
+
+        Object[] attributes;
+        try {
+            if (!CheckstyleMarker.MARKER_ID.equals(marker.getType())) return false;
+            attributes = marker.getAttributes(MarkerFilter.ATTRIBUTE_NAMES);
+        } catch (CoreException ce) {
+            return false;
+        }
+
+        Set<String> moduleNames = this.moduleNames;
+        if (moduleNames != null && !moduleNames.contains(attributes[0])) return false;
+
+        return this.matchesMessageKey(attributes[1] instanceof String ? (String) attributes[1] : null);
+    }
+
+    /**
+     * @return The subset of the {@code markers} that {@link #matches(IMarker) match}, in their original order
+     */
+    IMarker[]
+    filter(IMarker[] markers) {
+
+        List<IMarker> result = new ArrayList<IMarker>();
+        for (IMarker marker : markers) {
+            if (this.matches(marker)) result.add(marker);
+        }
+
+        return result.toArray(new IMarker[result.size()]);
+    }
+
+    private boolean
+    matchesMessageKey(@Nullable String messageKey) {
+
+        if (messageKey == null) return this.canFixMessageKey(null);
+
+        Boolean result = this.messageKeyMatches.get(messageKey);
+        if (result == null) {
+            result = this.canFixMessageKey(messageKey);
+            this.messageKeyMatches.put(messageKey, result);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,282 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.ui.quickfixes;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import net.sf.eclipsecs.core.config.meta.RuleMetadata;
+import net.sf.eclipsecs.core.util.CheckstyleLog;
+import net.sf.eclipsecs.ui.Messages;
+
+import org.eclipse.core.filebuffers.FileBuffers;
+import org.eclipse.core.filebuffers.ITextFileBuffer;
+import org.eclipse.core.filebuffers.ITextFileBufferManager;
+import org.eclipse.core.filebuffers.LocationKind;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IMarker;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.jobs.IJobChangeEvent;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.jobs.JobChangeAdapter;
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.source.IAnnotationModel;
+import org.eclipse.text.edits.MalformedTreeException;
+import org.eclipse.ui.texteditor.MarkerAnnotation;
+
+import de.unkrig.commons.nullanalysis.NotNullByDefault;
+
+/**
+ * The marker handling that {@link AbstractDocumentResolution} and {@link AbstractMultiMarkerASTResolution} have in
+ * common: Filtering of markers, and resolving batches of markers with only one connection to each file's text file
+ * buffer, and only one commit per file.
+ */
+@NotNullByDefault(false) final
+class MarkerResolutionSupport {
+
+    /**
+     * The resolution-specific parts.
+     */
+    interface Resolver {
+
+        /**
+         * @see org.eclipse.ui.IMarkerResolution#getLabel()
+         */
+        String getLabel();
+
+        /**
+         * @see AbstractDocumentResolution#canFixMessageKey(String)
+         */
+        boolean canFixMessageKey(String messageKey);
+
+        /**
+         * Modifies the {@code document} such that the {@code markers}, which all relate to the same file, are
+         * resolved.
+         *
+         * @return The annotations of the markers that were resolved
+         */
+        List<MarkerAnnotation>
+        resolve(
+            IFile                 file,
+            List<IMarker>         markers,
+            IDocument             document,
+            IAnnotationModel      annotationModel,
+            MarkerAnnotationIndex annotationIndex
+        ) throws CoreException, BadLocationException;
+    }
+
+    private final Resolver     resolver;
+    private final MarkerFilter markerFilter;
+    private volatile boolean   autoCommit;
+
+    MarkerResolutionSupport(final Resolver resolver) {
+        this.resolver     = resolver;
+        this.markerFilter = new MarkerFilter() {
+
+            @Override protected boolean
+            canFixMessageKey(String messageKey) {
+                return resolver.canFixMessageKey(messageKey);
+            }
+        };
+    }
+
+    void
+    setRuleMetaData(RuleMetadata metadata) {
+        this.markerFilter.setRuleMetaData(metadata);
+    }
+
+    void
+    setAutoCommitChanges(boolean autoCommit) {
+        this.autoCommit = autoCommit;
+    }
+
+    /**
+     * @see org.eclipse.ui.views.markers.WorkbenchMarkerResolution#canFix(IMarker)
+     */
+    boolean
+    canFix(IMarker marker) {
+        return this.markerFilter.matches(marker);
+    }
+
+    /**
+     * @see org.eclipse.ui.views.markers.WorkbenchMarkerResolution#findOtherMarkers(IMarker[])
+     */
+    IMarker[]
+    findOtherMarkers(IMarker[] markers) {
+        return this.markerFilter.filter(markers);
+    }
+
+    /**
+     * @see AbstractDocumentResolution#findOtherMarkers(IMarker[], FindOtherMarkersJob.Listener)
+     */
+    Job
+    findOtherMarkers(IMarker[] markers, final FindOtherMarkersJob.Listener listener) {
+
+        Job job = new FindOtherMarkersJob(this.resolver.getLabel(), this.markerFilter, markers, listener);
+
+        // Notify the listener through a job change listener rather than from "FindOtherMarkersJob.run()", because
+        // the latter is never invoked iff the job is canceled before it starts running.
+        job.addJobChangeListener(new JobChangeAdapter() {
+
+            @Override public void
+            done(IJobChangeEvent event) {
+                listener.done(event.getResult().getSeverity() == IStatus.CANCEL);
+            }
+        });
+        job.schedule();
+
+        return job;
+    }
+
+    /**
+     * Groups the {@code markers} by file, and resolves all markers of each file with only one connection to the
+     * file's text file buffer, and only one commit.
+     */
+    void
+    run(IMarker[] markers, IProgressMonitor monitor) {
+
+        Map<IFile, List<IMarker>> markersByFile = MarkerResolutionSupport.groupByFile(markers);
+
+        monitor.beginTask(this.resolver.getLabel(), markers.length);
+        try {
+            for (Entry<IFile, List<IMarker>> e : markersByFile.entrySet()) {
+                IFile         file        = e.getKey();
+                List<IMarker> fileMarkers = e.getValue();
+
+                if (monitor.isCanceled()) return;
+                monitor.subTask(file.getName());
+
+                this.run(file, fileMarkers, false);
+
+                monitor.worked(fileMarkers.size());
+            }
+        } finally {
+            monitor.done();
+        }
+    }
+
+    /**
+     * Resolves the given {@code markers}, which must all relate to the given {@code file}.
+     *
+     * @param skipShared Whether to leave the file alone iff its text file buffer requests a synchronization context
+     * @return           {@code false} iff the file was skipped because of {@code skipShared}
+     */
+    boolean
+    run(IFile file, List<IMarker> markers, boolean skipShared) {
+
+        IPath path = file.getLocation();
+
+        ITextFileBufferManager bufferManager   = null;
+        MarkerAnnotationIndex  annotationIndex = null;
+        try {
+            bufferManager = FileBuffers.getTextFileBufferManager();
+            bufferManager.connect(path, LocationKind.NORMALIZE, null);
+
+            ITextFileBuffer textFileBuffer = bufferManager.getTextFileBuffer(path, LocationKind.NORMALIZE);
+
+            if (skipShared && textFileBuffer.isSynchronizationContextRequested()) return false;
+
+            IAnnotationModel annotationModel = textFileBuffer.getAnnotationModel();
+            assert annotationModel != null : "Text file buffer is disconnected";
+
+            IDocument document = textFileBuffer.getDocument();
+            assert document != null;
+
+            annotationIndex = new MarkerAnnotationIndex(annotationModel);
+
+            List<MarkerAnnotation> resolved = this.resolver.resolve(
+                file,
+                markers,
+                document,
+                annotationModel,
+                annotationIndex
+            );
+            if (resolved.isEmpty()) return true;
+
+            for (MarkerAnnotation annotation : resolved) annotation.markDeleted(true);
+
+            // Commit the changes to the underlying file - only once for all markers.
+            if (this.autoCommit) textFileBuffer.commit(new NullProgressMonitor(), false);
+        } catch (CoreException e) {
+            CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
+        } catch (MalformedTreeException e) {
+            CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
+        } catch (BadLocationException e) {
+            CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
+        } catch (RuntimeException e) {
+
+            // Do not let one file prevent the other files from being processed.
+            CheckstyleLog.log(e, Messages.AbstractASTResolution_msgErrorQuickfix);
+        } finally {
+
+            if (annotationIndex != null) annotationIndex.dispose();
+
+            if (bufferManager != null) {
+                try {
+                    bufferManager.disconnect(path, LocationKind.NORMALIZE, null);
+                } catch (CoreException e) {
+                    CheckstyleLog.log(e, "Error processing quickfix"); //$NON-NLS-1$
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The {@code markers}, grouped by their file (in the order of first occurrence); markers that do not
+     *         relate to a file are ignored
+     */
+    static Map<IFile, List<IMarker>>
+    groupByFile(IMarker[] markers) {
+
+        Map<IFile, List<IMarker>> result = new LinkedHashMap<IFile, List<IMarker>>();
+        for (IMarker marker : markers) {
+
+            IResource resource = marker.getResource();
+            if (!(resource instanceof IFile)) continue;
+
+            List<IMarker> fileMarkers = result.get(resource);
+            if (fileMarkers == null) {
+                fileMarkers = new ArrayList<IMarker>();
+                result.put((IFile) resource, fileMarkers);
+            }
+            fileMarkers.add(marker);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,241 @@
+
+/*
+ * de.unkrig.cs-contrib - Additional checks, filters and quickfixes for CheckStyle and Eclipse-CS
+ *
+ * Copyright (c) 2013, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.unkrig.cscontrib.ui.quickfixes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.MissingResourceException;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import de.unkrig.commons.nullanalysis.Nullable;
+import de.unkrig.cscontrib.checks.AbstractWrapCheck;
+
+/**
+ * Extracts the argument values from a CheckStyle message, like {@link java.text.MessageFormat#parse(String,
+ * java.text.ParsePosition)}, but without allocating a {@link java.text.MessageFormat} and a {@link
+ * java.text.ParsePosition} for each message.
+ * <p>
+ * Extractors are immutable and thus thread-safe; {@link #get(String)} caches them by message key.
+ * <p>
+ * Notice: Unlike {@link java.text.MessageFormat#parse(String, java.text.ParsePosition)}, all argument values are
+ * extracted as {@link String}s, even if the format element has a type (e.g. "<code>{2,number,#}</code>").
+ */
+final
+class MessageArgumentExtractor {
+
+    /** The resource bundle that contains the message patterns of the cs-contrib checks. */
+    private static final String BUNDLE_NAME = "de.unkrig.cscontrib.checks.messages";
+
+    private static final ConcurrentMap<String, MessageArgumentExtractor>
+    CACHE = new ConcurrentHashMap<String, MessageArgumentExtractor>();
+
+    /**
+     * One element for each message pattern that is tried; each element is the sequence of literals of the pattern.
+     * E.g. the pattern "<code>''{0}'' must appear in column {1}, not {2}</code>" compiles to the literals {@code
+     * "'"}, {@code "' must appear in column "}, {@code ", not "} and {@code ""}.
+     */
+    private final String[][] literalss;
+
+    /**
+     * The argument indexes, parallel to {@link #literalss}; e.g. {@code 0, 1, 2} for the example above.
+     */
+    private final int[][] argumentIndexess;
+
+    private
+    MessageArgumentExtractor(List<String> patterns) {
+
+        int n = patterns.size();
+
+        this.literalss        = new String[n][];
+        this.argumentIndexess = new int[n][];
+
+        for (int i = 0; i < n; i++) {
+            List<String>  literals        = new ArrayList<String>();
+            List<Integer> argumentIndexes = new ArrayList<Integer>();
+            MessageArgumentExtractor.compile(patterns.get(i), literals, argumentIndexes);
+
+            this.literalss[i] = literals.toArray(new String[literals.size()]);
+
+            int[] tmp = new int[argumentIndexes.size()];
+            for (int j = 0; j < tmp.length; j++) tmp[j] = argumentIndexes.get(j);
+            this.argumentIndexess[i] = tmp;
+        }
+    }
+
+    /**
+     * @return The (cached) extractor for the messages with the given {@code messageKey}
+     */
+    static MessageArgumentExtractor
+    get(String messageKey) {
+
+        MessageArgumentExtractor result = MessageArgumentExtractor.CACHE.get(messageKey);
+        if (result != null) return result;
+
+        // Try the message pattern for the default locale, then the default message pattern, and, as a last resort,
+        // the message key itself.
+        List<String> patterns = new ArrayList<String>();
+        for (Locale locale : new Locale[] { Locale.getDefault(), Locale.ROOT }) {
+            try {
+                String pattern = ResourceBundle.getBundle(
+                    MessageArgumentExtractor.BUNDLE_NAME,
+                    locale,
+                    AbstractWrapCheck.class.getClassLoader()
+                ).getString(messageKey);
+                if (!patterns.contains(pattern)) patterns.add(pattern);
+            } catch (MissingResourceException mre) {
+                ;
+            }
+        }
+        if (patterns.isEmpty()) patterns.add(messageKey);
+
+        result = new MessageArgumentExtractor(patterns);
+
+        MessageArgumentExtractor tmp = MessageArgumentExtractor.CACHE.putIfAbsent(messageKey, result);
+        return tmp != null ? tmp : result;
+    }
+
+    /**
+     * If the {@code message} does not match, then the text after the first "{@code : }" is tried (some CheckStyle
+     * versions prefix the message with the module name).
+     *
+     * @return The argument values extracted from the {@code message}, or {@code null} iff the message does not match
+     *         any of the message patterns
+     */
+    @Nullable Object[]
+    extract(String message) {
+
+        Object[] result = this.extract(message, 0);
+        if (result != null) return result;
+
+        int idx = message.indexOf(": ");
+        if (idx != -1) return this.extract(message, idx + 2);
+
+        return null;
+    }
+
+    @Nullable private Object[]
+    extract(String message, int offset) {
+        for (int i = 0; i < this.literalss.length; i++) {
+            Object[] result = MessageArgumentExtractor.extract(
+                this.literalss[i],
+                this.argumentIndexess[i],
+                message,
+                offset
+            );
+            if (result != null) return result;
+        }
+        return null;
+    }
+
+    /**
+     * Implements the semantics of {@link java.text.MessageFormat#parse(String, java.text.ParsePosition)}: Each
+     * argument value extends up to the next occurrence of the following literal.
+     */
+    @Nullable private static Object[]
+    extract(String[] literals, int[] argumentIndexes, String message, int offset) {
+
+        if (!message.startsWith(literals[0], offset)) return null;
+        int pos = offset + literals[0].length();
+
+        int maxArgumentIndex = -1;
+        for (int argumentIndex : argumentIndexes) {
+            if (argumentIndex > maxArgumentIndex) maxArgumentIndex = argumentIndex;
+        }
+        Object[] result = new Object[maxArgumentIndex + 1];
+
+        for (int i = 0; i < argumentIndexes.length; i++) {
+            String next = literals[i + 1];
+
+            int end;
+            if (next.length() == 0) {
+                end = message.length();
+            } else {
+                end = message.indexOf(next, pos);
+                if (end == -1) return null;
+            }
+
+            result[argumentIndexes[i]] = message.substring(pos, end);
+            pos = end + next.length();
+        }
+
+        return result;
+    }
+
+    /**
+     * Splits a {@link java.text.MessageFormat} pattern into its literals and format elements. Honors single-quote
+     * quoting and nested braces in format styles (e.g. "<code>{0,choice,0#no|1#one}</code>").
+     *
+     * @param literals        Gets one more element than {@code argumentIndexes}
+     * @param argumentIndexes Gets the argument index of each format element
+     */
+    private static void
+    compile(String pattern, List<String> literals, List<Integer> argumentIndexes) {
+
+        StringBuilder literal = new StringBuilder();
+        boolean       inQuote = false;
+        for (int i = 0, n = pattern.length(); i < n;) {
+            char c = pattern.charAt(i++);
+
+            if (c == '\'') {
+                if (i < n && pattern.charAt(i) == '\'') {
+                    literal.append('\'');
+                    i++;
+                } else {
+                    inQuote = !inQuote;
+                }
+            } else
+            if (c == '{' && !inQuote) {
+
+                // Parse the argument index and skip the format type and format style.
+                int argumentIndex = 0;
+                for (; i < n && Character.isDigit(pattern.charAt(i)); i++) {
+                    argumentIndex = 10 * argumentIndex + Character.digit(pattern.charAt(i), 10);
+                }
+                for (int depth = 1; i < n && depth > 0; i++) {
+                    c = pattern.charAt(i);
+                    if (c == '{') {
+                        depth++;
+                    } else
+                    if (c == '}') {
+                        depth--;
+                    }
+                }
+
+                literals.add(literal.toString());
+                literal.setLength(0);
+                argumentIndexes.add(argumentIndex);
+            } else
+            {
+                literal.append(c);
+            }
+        }
+        literals.add(literal.toString());
+    }
+}
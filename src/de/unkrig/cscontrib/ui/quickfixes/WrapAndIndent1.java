@@ -26,9 +26,8 @@
 
 package de.unkrig.cscontrib.ui.quickfixes;
 
-import net.sf.eclipsecs.core.util.CheckstyleLog;
-
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.jface.text.IRegion;
@@ -36,6 +35,7 @@ import org.eclipse.swt.graphics.Image;
 
 import de.unkrig.commons.nullanalysis.NotNull;
 import de.unkrig.commons.nullanalysis.NotNullByDefault;
+import de.unkrig.cscontrib.Activator;
 import de.unkrig.cscontrib.checks.AbstractWrapCheck;
 
 /**
@@ -52,7 +52,8 @@ class WrapAndIndent1 extends AbstractDocumentResolution {
     }
 
     @Override protected void
-    resolve(String messageKey, Object[] arguments, @NotNull IDocument document, int markerStart, IResource resource) {
+    resolve(String messageKey, Object[] arguments, @NotNull IDocument document, int markerStart, IResource resource)
+    throws CoreException {
         try {
             IRegion lineInfo = document.getLineInformationOfOffset(markerStart);
             String  line     = document.get(lineInfo.getOffset(), lineInfo.getLength());
@@ -67,13 +68,14 @@ class WrapAndIndent1 extends AbstractDocumentResolution {
                 char c = line.charAt(j - 1);
                 if (c != ' ' && c != '\t') break;
             }
-            document.replace(
+            this.replace(
+                document,
                 lineInfo.getOffset() + j,
                 markerStart - lineInfo.getOffset() - j,
                 document.getLineDelimiter(0) + line.substring(0, i)
             );
         } catch (BadLocationException ble) {
-            CheckstyleLog.log(ble);
+            throw Activator.coreException(ble);
         }
     }
 
@@ -26,15 +26,15 @@
 
 package de.unkrig.cscontrib.ui.quickfixes;
 
-import net.sf.eclipsecs.core.util.CheckstyleLog;
-
 import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
 import org.eclipse.swt.graphics.Image;
 
 import de.unkrig.commons.nullanalysis.NotNull;
 import de.unkrig.commons.nullanalysis.NotNullByDefault;
+import de.unkrig.cscontrib.Activator;
 import de.unkrig.cscontrib.checks.AbstractWrapCheck;
 
 /**
@@ -51,7 +51,8 @@ class WrapAndIndent2 extends AbstractDocumentResolution {
     }
 
     @Override protected void
-    resolve(String messageKey, Object[] arguments, @NotNull IDocument document, int markerStart, IResource resource) {
+    resolve(String messageKey, Object[] arguments, @NotNull IDocument document, int markerStart, IResource resource)
+    throws CoreException {
         try {
             char c = 0;
             int  from;
@@ -60,7 +61,8 @@ class WrapAndIndent2 extends AbstractDocumentResolution {
                 if (!Character.isWhitespace(c)) break;
             }
             char c2 = document.getChar(markerStart);
-            document.replace(
+            this.replace(
+                document,
                 from,
                 markerStart - from,
                 (
@@ -69,7 +71,7 @@ class WrapAndIndent2 extends AbstractDocumentResolution {
                 ) ? "" : " "
             );
         } catch (BadLocationException ble) {
-            CheckstyleLog.log(ble);
+            throw Activator.coreException(ble);
         }
     }
 
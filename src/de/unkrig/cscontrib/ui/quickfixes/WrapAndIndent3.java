@@ -76,7 +76,7 @@ class WrapAndIndent3 extends AbstractJavaResolution {
                 }
             }
 
-            IJavaProject javaProject = JavaCore.create(resource.getProject());
+            IJavaProject javaProject = resource == null ? null : JavaCore.create(resource.getProject());
 
             int preceedingSpace; // Index of the whitespace before the token.
             for (preceedingSpace = tokenIndex; preceedingSpace > 0; preceedingSpace--) {
@@ -87,7 +87,8 @@ class WrapAndIndent3 extends AbstractJavaResolution {
             if (s == null) {
                 s = document.getLineDelimiter(0) + this.space("", correctColumnNumber, javaProject);
             }
-            document.replace(
+            this.replace(
+                document,
                 lineInformation.getOffset() + preceedingSpace,
                 tokenIndex - preceedingSpace,
                 s
@@ -26,8 +26,6 @@
 
 package de.unkrig.cscontrib.ui.quickfixes;
 
-import net.sf.eclipsecs.ui.quickfixes.AbstractASTResolution;
-
 import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.SuperConstructorInvocation;
 import org.eclipse.jface.text.IRegion;
@@ -42,12 +40,12 @@ import de.unkrig.cscontrib.ui.PluginImages;
  * @cs-label Remove
  */
 @NotNullByDefault(false) public
-class ZeroParameterSuperconstructorInvocation extends AbstractASTResolution {
+class ZeroParameterSuperconstructorInvocation extends AbstractMultiMarkerASTResolution {
 
     @Override protected ASTVisitor
-    handleGetCorrectingASTVisitor(final IRegion lineInfo, final int markerStartOffset) {
+    getCorrectingASTVisitor(final IRegion[] lineInfos, final int[] markerStartOffsets, final boolean[] corrected) {
 
-        return new ASTVisitor() {
+        return new PruningASTVisitor(lineInfos) {
 
             @Override public void
             endVisit(SuperConstructorInvocation node) {
@@ -59,8 +57,8 @@ class ZeroParameterSuperconstructorInvocation extends AbstractASTResolution {
 //                    ZeroParameterSuperconstructorInvocation.this.replace(node, parenthesize(node));
 //                }
                 if (
-                    ZeroParameterSuperconstructorInvocation.this.containsPosition(lineInfo, node.getStartPosition())
-                    && node.arguments().isEmpty()
+                    node.arguments().isEmpty()
+                    && AbstractMultiMarkerASTResolution.correctAll(lineInfos, corrected, node.getStartPosition())
                 ) {
                     node.delete();
                 }